@@ -0,0 +1,7 @@
+package com.github.lbroudoux.es.repository;
+
+import com.github.lbroudoux.roo.addon.layers.repository.elasticsearch.RooElasticsearchRepositoryImpl;
+
+@RooElasticsearchRepositoryImpl(repository = TweetRepository.class)
+public class TweetRepositoryImpl {
+}
@@ -0,0 +1,36 @@
+/*
+ * Licensed to Laurent Broudoux (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.lbroudoux.roo.addon.layers.repository.elasticsearch;
+
+import java.io.Closeable;
+import java.util.Iterator;
+
+/**
+ * An iterator holding server side resources - such as an Elasticsearch scroll context - that
+ * must be closed once the caller is done with it, even if not fully consumed.
+ * @param <T> the type of elements
+ * @author Laurent Broudoux
+ */
+public interface CloseableIterator<T> extends Iterator<T>, Closeable {
+
+   /**
+    * Releases the resources held by this iterator. Never throws.
+    */
+   void close();
+}
@@ -46,7 +46,8 @@ public class ElasticsearchCommands implements CommandMarker {
         return operations.isElasticsearchSetupAvailable();
     }
     
-    @CliAvailabilityIndicator({ "entity elasticsearch", "repository elasticsearch" })
+    @CliAvailabilityIndicator({ "entity elasticsearch", "repository elasticsearch", "indexer elasticsearch", 
+          "finder elasticsearch add", "repository elasticsearch implementation" })
     public boolean isEntityCommandAvailable() {
         return operations.isElasticsearchSetupAvailable();
     }
@@ -54,23 +55,57 @@ public class ElasticsearchCommands implements CommandMarker {
     @CliCommand(value = "elasticsearch setup", help = "Configures the project for Elasticsearch persistence.")
     public void setup(
           @CliOption(key = "local", mandatory = false, help = "Use a local instance of Elasticsearch") final Boolean local,
-          @CliOption(key = "clusterNodes", mandatory = false, help = "List of cluster nodes with coma as separation") final String clusterNodes
+          @CliOption(key = "clusterNodes", mandatory = false, help = "List of cluster nodes with coma as separation") final String clusterNodes,
+          @CliOption(key = "clusterName", mandatory = false, help = "The name of the cluster to connect to") final String clusterName,
+          @CliOption(key = "sniff", mandatory = false, specifiedDefaultValue = "true", help = "Discover the other cluster nodes from the given ones") final Boolean sniff,
+          @CliOption(key = "pingTimeout", mandatory = false, help = "The timeout of node pings (eg: 5s)") final String pingTimeout,
+          @CliOption(key = "pingInterval", mandatory = false, help = "The interval between node pings and samplings (eg: 5s)") final String pingInterval,
+          @CliOption(key = "connectionsPerNode", mandatory = false, help = "The number of regular connections opened to each node") final Integer connectionsPerNode
           ) {
-        operations.setup(local, clusterNodes);
+        operations.setup(local, clusterNodes, clusterName, sniff, pingTimeout, pingInterval, connectionsPerNode);
     }
     
     @CliCommand(value = "entity elasticsearch", help = "Creates a domain entity which can be backed by an Elasticsearch repository")
     public void entity(
-          @CliOption(key = "class", mandatory = true, optionContext = "update,project", help = "Implementation class for the specified interface") final JavaType classType
+          @CliOption(key = "class", mandatory = true, optionContext = "update,project", help = "Implementation class for the specified interface") final JavaType classType,
+          @CliOption(key = "shards", mandatory = false, help = "The number of primary shards of the entity index") final Integer shards,
+          @CliOption(key = "replicas", mandatory = false, help = "The number of replicas of each primary shard") final Integer replicas,
+          @CliOption(key = "refreshInterval", mandatory = false, help = "The refresh interval of the entity index (eg: 30s, -1 to disable)") final String refreshInterval,
+          @CliOption(key = "indexStoreType", mandatory = false, help = "The store type of the entity index (eg: fs, mmapfs, memory)") final String indexStoreType
           ){
-       operations.createType(classType);
+       operations.createType(classType, shards, replicas, refreshInterval, indexStoreType);
     }
     
     @CliCommand(value = "repository elasticsearch", help = "Adds @RooElasticsearchRepository annotation to target type")
     public void repository(
           @CliOption(key = "interface", mandatory = true, help = "The java interface to apply this annotation to") final JavaType interfaceType,
-          @CliOption(key = "entity", mandatory = true, help = "The domain entity this repository should expose") final JavaType domainType
+          @CliOption(key = "entity", mandatory = true, help = "The domain entity this repository should expose") final JavaType domainType,
+          @CliOption(key = "projections", mandatory = false, help = "Named field subsets with semicolon as separation (eg: summary:title,author;light:!body)") final String projections,
+          @CliOption(key = "role", mandatory = false, help = "The methods this repository serves when the entity has several repositories") final RepositoryRole role
           ){
-       operations.createRepository(interfaceType, domainType);
+       operations.createRepository(interfaceType, domainType, projections, role);
     }
-}
\ No newline at end of file
+    
+    @CliCommand(value = "repository elasticsearch implementation", help = "Creates the custom implementation of an existing Elasticsearch repository")
+    public void repositoryImplementation(
+          @CliOption(key = "repository", mandatory = true, optionContext = "update,project", help = "The Elasticsearch repository to implement") final JavaType repositoryType
+          ){
+       operations.createRepositoryImplementation(repositoryType);
+    }
+    
+    @CliCommand(value = "finder elasticsearch add", help = "Adds an exact match finder to an Elasticsearch repository")
+    public void finder(
+          @CliOption(key = "repository", mandatory = true, optionContext = "update,project", help = "The Elasticsearch repository to add finder to") final JavaType repositoryType,
+          @CliOption(key = "fields", mandatory = true, help = "The entity fields to match with coma as separation") final String fields
+          ){
+       operations.addFinder(repositoryType, fields);
+    }
+    
+    @CliCommand(value = "indexer elasticsearch", help = "Creates a Spring bean bulk indexing entities into Elasticsearch")
+    public void indexer(
+          @CliOption(key = "entity", mandatory = true, optionContext = "update,project", help = "The domain entity to index") final JavaType entityType,
+          @CliOption(key = "class", mandatory = false, help = "The indexer class to create (defaults to the entity class suffixed by Indexer)") final JavaType indexerType
+          ){
+       operations.createIndexer(entityType, indexerType);
+    }
+}
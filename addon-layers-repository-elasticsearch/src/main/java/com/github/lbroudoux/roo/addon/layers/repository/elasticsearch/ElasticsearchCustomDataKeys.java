@@ -0,0 +1,40 @@
+/*
+ * Licensed to Laurent Broudoux (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.lbroudoux.roo.addon.layers.repository.elasticsearch;
+
+import org.springframework.roo.classpath.customdata.CustomDataKeys;
+import org.springframework.roo.classpath.customdata.tagkeys.MethodMetadataCustomDataKey;
+
+/**
+ * Custom data keys for the layer methods this add-on offers on top of the ones
+ * Roo defines in {@link CustomDataKeys}.
+ * @author Laurent Broudoux
+ */
+public final class ElasticsearchCustomDataKeys {
+
+   public static final MethodMetadataCustomDataKey DELETE_ALL_METHOD = new MethodMetadataCustomDataKey("DELETE_ALL_METHOD");
+   public static final MethodMetadataCustomDataKey FIND_BY_IDS_METHOD = new MethodMetadataCustomDataKey("FIND_BY_IDS_METHOD");
+   public static final MethodMetadataCustomDataKey FIND_ENTRIES_AFTER_METHOD = new MethodMetadataCustomDataKey("FIND_ENTRIES_AFTER_METHOD");
+   public static final MethodMetadataCustomDataKey FIND_ROUTED_METHOD = new MethodMetadataCustomDataKey("FIND_ROUTED_METHOD");
+   public static final MethodMetadataCustomDataKey SAVE_ALL_METHOD = new MethodMetadataCustomDataKey("SAVE_ALL_METHOD");
+
+   private ElasticsearchCustomDataKeys() {
+      // Constants class.
+   }
+}
@@ -0,0 +1,193 @@
+/*
+ * Licensed to Laurent Broudoux (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.lbroudoux.roo.addon.layers.repository.elasticsearch;
+
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.roo.classpath.PhysicalTypeMetadata;
+import org.springframework.roo.classpath.details.FieldMetadata;
+import org.springframework.roo.classpath.details.annotations.AnnotationAttributeValue;
+import org.springframework.roo.classpath.details.annotations.EnumAttributeValue;
+import org.springframework.roo.classpath.details.annotations.populator.AbstractAnnotationValues;
+import org.springframework.roo.classpath.details.annotations.populator.AutoPopulate;
+import org.springframework.roo.classpath.details.annotations.populator.AutoPopulationUtils;
+import org.springframework.roo.model.JavaSymbolName;
+import org.springframework.roo.model.JavaType;
+
+/**
+ * The values of a {@link RooElasticsearchEntity} annotation.
+ * @author Laurent Broudoux
+ */
+public class ElasticsearchEntityAnnotationValues extends AbstractAnnotationValues {
+
+   @AutoPopulate
+   private int shards = RooElasticsearchEntity.DEFAULT_SHARDS;
+   
+   @AutoPopulate
+   private int replicas = RooElasticsearchEntity.DEFAULT_REPLICAS;
+   
+   @AutoPopulate
+   private String refreshInterval = RooElasticsearchEntity.DEFAULT_REFRESH_INTERVAL;
+   
+   @AutoPopulate
+   private String indexStoreType = RooElasticsearchEntity.DEFAULT_INDEX_STORE_TYPE;
+   
+   @AutoPopulate
+   private String routingField = "";
+   
+   @AutoPopulate
+   private String[] unindexedFields = new String[0];
+   
+   @AutoPopulate
+   private boolean versioned = false;
+   
+   private RefreshMode refreshMode = RefreshMode.IMMEDIATE;
+   
+   private RollingPeriod rolling = RollingPeriod.NONE;
+   
+   /**
+    * Constructor.
+    * @param governorPhysicalTypeMetadata the metadata to parse (required)
+    */
+   public ElasticsearchEntityAnnotationValues(final PhysicalTypeMetadata governorPhysicalTypeMetadata){
+      super(governorPhysicalTypeMetadata, ElasticsearchJavaType.ROO_ELASTICSEARCH_ENTITY);
+      AutoPopulationUtils.populate(this, annotationMetadata);
+      if (annotationMetadata != null) {
+         refreshMode = getEnumValue(RooElasticsearchEntity.REFRESH_MODE_ATTRIBUTE, RefreshMode.class, refreshMode);
+         rolling = getEnumValue(RooElasticsearchEntity.ROLLING_ATTRIBUTE, RollingPeriod.class, rolling);
+      }
+   }
+   
+   /**
+    * Returns the number of primary shards of the entity index.
+    * @return a strictly positive number
+    */
+   public int getShards(){
+      return shards;
+   }
+   
+   /**
+    * Returns the number of replicas of each primary shard.
+    * @return a positive number
+    */
+   public int getReplicas(){
+      return replicas;
+   }
+   
+   /**
+    * Returns the interval between two automatic refreshes of the entity index.
+    * @return a non-blank time value (eg: 1s, -1 to disable)
+    */
+   public String getRefreshInterval(){
+      return refreshInterval;
+   }
+   
+   /**
+    * Returns the store type of the entity index.
+    * @return a non-blank store type
+    */
+   public String getIndexStoreType(){
+      return indexStoreType;
+   }
+   
+   /**
+    * Returns the name of the field whose value routes entities to shards.
+    * @return a possibly empty field name
+    */
+   public String getRoutingField(){
+      return routingField;
+   }
+   
+   /**
+    * Tell if entities are routed on a custom field rather than on their identifier.
+    * @return true if a routing field is specified and declared by the entity
+    */
+   public boolean isRouted(){
+      return StringUtils.isNotBlank(routingField) && getFieldType(routingField) != null;
+   }
+   
+   /**
+    * Returns the names of fields that are stored within source but not indexed.
+    * @return a non-<code>null</code> array
+    */
+   public String[] getUnindexedFields(){
+      return unindexedFields;
+   }
+   
+   /**
+    * Returns how the index is refreshed after writing an entity.
+    * @return a non-<code>null</code> mode
+    */
+   public RefreshMode getRefreshMode(){
+      return refreshMode;
+   }
+   
+   /**
+    * Returns how often entities are written to a new index.
+    * @return a non-<code>null</code> period
+    */
+   public RollingPeriod getRolling(){
+      return rolling;
+   }
+   
+   /**
+    * Tell if entities are written to time based indices rather than to a single one.
+    * @return true if a rolling period is specified
+    */
+   public boolean isRolling(){
+      return rolling != RollingPeriod.NONE;
+   }
+   
+   /**
+    * Tell if entities are looked up by identifier through a search, as their shard or index
+    * cannot be told from their identifier alone.
+    * @return true if entities are either routed on a custom field or rolling
+    */
+   public boolean isSearchedById(){
+      return isRouted() || isRolling();
+   }
+   
+   /**
+    * Tell if entities carry the version of their document for optimistic concurrency control.
+    * @return true if a version field is added
+    */
+   public boolean isVersioned(){
+      return versioned;
+   }
+   
+   /**
+    * Returns the type of a field declared by the annotated entity.
+    * @param fieldName the name of the field (required)
+    * @return the field type, <code>null</code> if entity declares no such field
+    */
+   public JavaType getFieldType(final String fieldName){
+      if (governorTypeDetails == null) {
+         return null;
+      }
+      final FieldMetadata field = governorTypeDetails.getDeclaredField(new JavaSymbolName(fieldName));
+      return field == null ? null : field.getFieldType();
+   }
+   
+   private <E extends Enum<E>> E getEnumValue(final String attributeName, final Class<E> enumType, final E defaultValue){
+      final AnnotationAttributeValue<?> value = annotationMetadata.getAttribute(new JavaSymbolName(attributeName));
+      if (value instanceof EnumAttributeValue) {
+         return Enum.valueOf(enumType, ((EnumAttributeValue) value).getValue().getField().getSymbolName());
+      }
+      return defaultValue;
+   }
+}
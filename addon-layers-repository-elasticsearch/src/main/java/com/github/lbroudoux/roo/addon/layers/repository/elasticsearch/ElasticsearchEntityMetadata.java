@@ -21,17 +21,22 @@ package com.github.lbroudoux.roo.addon.layers.repository.elasticsearch;
 import java.lang.reflect.Modifier;
 import java.util.Arrays;
 import java.util.List;
+import java.util.logging.Logger;
 
+import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
 import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.springframework.roo.classpath.PhysicalTypeIdentifierNamingUtils;
 import org.springframework.roo.classpath.PhysicalTypeMetadata;
 import org.springframework.roo.classpath.details.BeanInfoUtils;
+import org.springframework.roo.classpath.details.DeclaredFieldAnnotationDetails;
 import org.springframework.roo.classpath.details.FieldMetadata;
 import org.springframework.roo.classpath.details.FieldMetadataBuilder;
+import org.springframework.roo.classpath.details.MemberFindingUtils;
 import org.springframework.roo.classpath.details.MethodMetadata;
 import org.springframework.roo.classpath.details.MethodMetadataBuilder;
 import org.springframework.roo.classpath.details.annotations.AnnotatedJavaType;
+import org.springframework.roo.classpath.details.annotations.AnnotationMetadata;
 import org.springframework.roo.classpath.details.annotations.AnnotationMetadataBuilder;
 import org.springframework.roo.classpath.itd.AbstractItdTypeDetailsProvidingMetadataItem;
 import org.springframework.roo.classpath.itd.InvocableMemberBodyBuilder;
@@ -40,6 +45,7 @@ import org.springframework.roo.model.JavaSymbolName;
 import org.springframework.roo.model.JavaType;
 import org.springframework.roo.model.SpringJavaType;
 import org.springframework.roo.project.LogicalPath;
+import org.springframework.roo.support.logging.HandlerUtils;
 
 /**
  * Creates metadata for domain entity ITDs (annotated with {@link RooElasticsearchEntity}.
@@ -48,9 +54,31 @@ import org.springframework.roo.project.LogicalPath;
 public class ElasticsearchEntityMetadata extends AbstractItdTypeDetailsProvidingMetadataItem {
 
     // Constants
+    private static final Logger LOGGER = HandlerUtils.getLogger(ElasticsearchEntityMetadata.class);
     private static final String PROVIDES_TYPE_STRING = ElasticsearchEntityMetadata.class.getName();
     private static final String PROVIDES_TYPE = MetadataIdentificationUtils.create(PROVIDES_TYPE_STRING);
 
+    private static final JavaType FIELD = new JavaType("org.springframework.data.elasticsearch.annotations.Field");
+    private static final JavaType FIELD_TYPE = new JavaType("org.springframework.data.elasticsearch.annotations.FieldType");
+    private static final JavaType FIELD_INDEX = new JavaType("org.springframework.data.elasticsearch.annotations.FieldIndex");
+    private static final JavaType DATA_TRANSIENT = new JavaType("org.springframework.data.annotation.Transient");
+    private static final JavaType SIZE = new JavaType("javax.validation.constraints.Size");
+    private static final JavaType DATE = new JavaType("java.util.Date");
+    private static final JavaType CALENDAR = new JavaType("java.util.Calendar");
+    
+    /** Strings longer than this are considered as text content rather than identifiers. */
+    private static final int MAX_IDENTIFIER_LENGTH = 256;
+    private static final List<String> TEXT_FIELD_NAMES = Arrays.asList("content", "text", "body", "description", "message", "comment");
+
+    private static final JavaType JSON_IGNORE = new JavaType("com.fasterxml.jackson.annotation.JsonIgnore");
+    private static final JavaType DATA_VERSION = new JavaType("org.springframework.data.annotation.Version");
+
+    /** The name of the field holding the document version of a versioned entity. */
+    public static final String VERSION_FIELD_NAME = "version";
+
+    /** The name of the accessor returning the routing value of a routed entity. */
+    public static final String ROUTING_ACCESSOR_NAME = "getElasticsearchRouting";
+
     private FieldMetadata idField;
     
     public static final String getMetadataIdentiferType() {
@@ -73,10 +101,12 @@ public class ElasticsearchEntityMetadata extends AbstractItdTypeDetailsProviding
         return PhysicalTypeIdentifierNamingUtils.isValid(PROVIDES_TYPE_STRING, metadataIdentificationString);
     }
     
-    public ElasticsearchEntityMetadata(String identifier, JavaType aspectName, PhysicalTypeMetadata governorPhysicalTypeMetadata) {
+    public ElasticsearchEntityMetadata(String identifier, JavaType aspectName, PhysicalTypeMetadata governorPhysicalTypeMetadata,
+          final ElasticsearchEntityAnnotationValues annotationValues) {
         super(identifier, aspectName, governorPhysicalTypeMetadata);
         
         Validate.isTrue(isValid(identifier), "Metadata identification string '" + identifier + "' does not appear to be a valid");
+        Validate.notNull(annotationValues, "Annotation values required");
         
         if (!isValid()){
             return;
@@ -88,14 +118,52 @@ public class ElasticsearchEntityMetadata extends AbstractItdTypeDetailsProviding
         AnnotationMetadataBuilder annotationBuilder = new AnnotationMetadataBuilder(new JavaType("org.springframework.data.elasticsearch.annotations.Document"));
         annotationBuilder.addStringAttribute("indexName", getJavaType(identifier).getSimpleTypeName().toLowerCase() + "s");
         annotationBuilder.addStringAttribute("type", getJavaType(identifier).getSimpleTypeName().toLowerCase());
+        // Only specify index settings that differ from Spring Data Elasticsearch defaults.
+        if (annotationValues.getShards() != RooElasticsearchEntity.DEFAULT_SHARDS) {
+           annotationBuilder.addIntegerAttribute("shards", annotationValues.getShards());
+        }
+        if (annotationValues.getReplicas() != RooElasticsearchEntity.DEFAULT_REPLICAS) {
+           annotationBuilder.addIntegerAttribute("replicas", annotationValues.getReplicas());
+        }
+        if (!RooElasticsearchEntity.DEFAULT_REFRESH_INTERVAL.equals(annotationValues.getRefreshInterval())) {
+           annotationBuilder.addStringAttribute("refreshInterval", annotationValues.getRefreshInterval());
+        }
+        if (!RooElasticsearchEntity.DEFAULT_INDEX_STORE_TYPE.equals(annotationValues.getIndexStoreType())) {
+           annotationBuilder.addStringAttribute("indexStoreType", annotationValues.getIndexStoreType());
+        }
         builder.addAnnotation(annotationBuilder.build());
 
+        // Map governor fields explicitly rather than relying on dynamic mapping.
+        final List<String> unindexedFields = Arrays.asList(annotationValues.getUnindexedFields());
+        for (final FieldMetadata field : governorTypeDetails.getDeclaredFields()) {
+           final AnnotationMetadataBuilder fieldAnnotation = getFieldMappingAnnotation(field, 
+                 unindexedFields.contains(field.getFieldName().getSymbolName()));
+           if (fieldAnnotation != null) {
+              builder.addFieldAnnotation(new DeclaredFieldAnnotationDetails(field, fieldAnnotation.build()));
+           }
+        }
+
         idField = getIdentifierField();
         if (idField != null) {
             builder.addField(idField);
             builder.addMethod(getIdentifierAccessor(idField));
             builder.addMethod(getIdentifierMutator(idField));
         }
+        
+        if (annotationValues.isVersioned()) {
+            final FieldMetadata versionField = getVersionField();
+            builder.addField(versionField);
+            builder.addMethod(getVersionAccessor(versionField));
+            builder.addMethod(getVersionMutator(versionField));
+        }
+        
+        if (annotationValues.isRouted()) {
+            final FieldMetadata routingField = governorTypeDetails.getDeclaredField(new JavaSymbolName(annotationValues.getRoutingField()));
+            builder.addMethod(getRoutingAccessor(routingField));
+        } else if (StringUtils.isNotBlank(annotationValues.getRoutingField())) {
+            LOGGER.warning("Routing accessor skipped: " + governorTypeDetails.getName().getSimpleTypeName() 
+                  + " has no field '" + annotationValues.getRoutingField() + "'");
+        }
 
         // Build the ITD
         itdTypeDetails = builder.build();
@@ -114,6 +182,87 @@ public class ElasticsearchEntityMetadata extends AbstractItdTypeDetailsProviding
        return fieldBuilder.build();
     }
     
+    /**
+     * Create metadata for a version field definition. Version is document metadata so it is 
+     * kept out of the document source.
+     * @return a FieldMetadata object
+     */
+    private FieldMetadata getVersionField() {
+       
+       final FieldMetadataBuilder fieldBuilder = new FieldMetadataBuilder(getId(), 
+             Modifier.PRIVATE, new JavaSymbolName(VERSION_FIELD_NAME), JavaType.LONG_OBJECT, null);
+       fieldBuilder.addAnnotation(new AnnotationMetadataBuilder(DATA_VERSION));
+       fieldBuilder.addAnnotation(new AnnotationMetadataBuilder(JSON_IGNORE));
+       return fieldBuilder.build();
+    }
+    
+    /**
+     * Create the Spring Data Elasticsearch mapping annotation of a governor field. Short strings are
+     * considered as identifiers and not analyzed while long ones are considered as text content.
+     * @param field The governor field to map
+     * @param unindexed Whether the field is only carried as payload
+     * @return an annotation builder or null if field is already mapped or should not be mapped
+     */
+    private AnnotationMetadataBuilder getFieldMappingAnnotation(final FieldMetadata field, final boolean unindexed) {
+       if (Modifier.isStatic(field.getModifier()) || Modifier.isTransient(field.getModifier())
+             || MemberFindingUtils.getAnnotationOfType(field.getAnnotations(), FIELD) != null
+             || MemberFindingUtils.getAnnotationOfType(field.getAnnotations(), SpringJavaType.DATA_ID) != null
+             || MemberFindingUtils.getAnnotationOfType(field.getAnnotations(), DATA_TRANSIENT) != null) {
+          return null;
+       }
+       
+       final JavaType fieldType = field.getFieldType();
+       String type = null;
+       String index = null;
+       if (JavaType.STRING.equals(fieldType)) {
+          type = "String";
+          index = isTextContent(field) ? "analyzed" : "not_analyzed";
+       } else if (JavaType.INT_OBJECT.equals(fieldType) || JavaType.INT_PRIMITIVE.equals(fieldType)
+             || JavaType.SHORT_OBJECT.equals(fieldType) || JavaType.SHORT_PRIMITIVE.equals(fieldType)) {
+          type = "Integer";
+       } else if (JavaType.LONG_OBJECT.equals(fieldType) || JavaType.LONG_PRIMITIVE.equals(fieldType)) {
+          type = "Long";
+       } else if (JavaType.FLOAT_OBJECT.equals(fieldType) || JavaType.FLOAT_PRIMITIVE.equals(fieldType)) {
+          type = "Float";
+       } else if (JavaType.DOUBLE_OBJECT.equals(fieldType) || JavaType.DOUBLE_PRIMITIVE.equals(fieldType)
+             || JavaType.BIG_DECIMAL.equals(fieldType)) {
+          type = "Double";
+       } else if (JavaType.BOOLEAN_OBJECT.equals(fieldType) || JavaType.BOOLEAN_PRIMITIVE.equals(fieldType)) {
+          type = "Boolean";
+       } else if (DATE.equals(fieldType) || CALENDAR.equals(fieldType)) {
+          type = "Date";
+       } else {
+          // Let complex types be mapped dynamically.
+          return null;
+       }
+       
+       final AnnotationMetadataBuilder annotationBuilder = new AnnotationMetadataBuilder(FIELD);
+       annotationBuilder.addEnumAttribute("type", FIELD_TYPE, type);
+       if (unindexed) {
+          annotationBuilder.addEnumAttribute("index", FIELD_INDEX, "no");
+       } else if (index != null) {
+          annotationBuilder.addEnumAttribute("index", FIELD_INDEX, index);
+       }
+       return annotationBuilder;
+    }
+    
+    /**
+     * Tell if a String field holds text content (to be analyzed) rather than an identifier or a code.
+     * @param field The governor field to check
+     * @return true if field is either named like text or allowed to be long
+     */
+    private boolean isTextContent(final FieldMetadata field) {
+       if (TEXT_FIELD_NAMES.contains(field.getFieldName().getSymbolName().toLowerCase())) {
+          return true;
+       }
+       final AnnotationMetadata size = MemberFindingUtils.getAnnotationOfType(field.getAnnotations(), SIZE);
+       if (size != null && size.getAttribute(new JavaSymbolName("max")) != null) {
+          final Object max = size.getAttribute(new JavaSymbolName("max")).getValue();
+          return max instanceof Integer && ((Integer) max) > MAX_IDENTIFIER_LENGTH;
+       }
+       return false;
+    }
+    
     private MethodMetadataBuilder getIdentifierAccessor(FieldMetadata idField){
        // Specify the desired method name
        JavaSymbolName requiredAccessorName = BeanInfoUtils.getAccessorMethodName(idField);
@@ -126,6 +275,39 @@ public class ElasticsearchEntityMetadata extends AbstractItdTypeDetailsProviding
              requiredAccessorName, idField.getFieldType(), bodyBuilder);
     }
     
+    private MethodMetadataBuilder getVersionAccessor(FieldMetadata versionField){
+       final InvocableMemberBodyBuilder bodyBuilder = new InvocableMemberBodyBuilder();
+       bodyBuilder.appendFormalLine("return this." + versionField.getFieldName().getSymbolName() + ";");
+
+       return new MethodMetadataBuilder(getId(), Modifier.PUBLIC, 
+             BeanInfoUtils.getAccessorMethodName(versionField), versionField.getFieldType(), bodyBuilder);
+    }
+    
+    private MethodMetadataBuilder getVersionMutator(FieldMetadata versionField){
+       final InvocableMemberBodyBuilder bodyBuilder = new InvocableMemberBodyBuilder();
+       bodyBuilder.appendFormalLine("this." + versionField.getFieldName().getSymbolName() + " = version;");
+       
+       return new MethodMetadataBuilder(getId(), Modifier.PUBLIC, BeanInfoUtils.getMutatorMethodName(versionField), 
+             JavaType.VOID_PRIMITIVE, AnnotatedJavaType.convertFromJavaTypes(Arrays.asList(versionField.getFieldType())), 
+             Arrays.asList(new JavaSymbolName("version")), bodyBuilder);
+    }
+    
+    private MethodMetadataBuilder getRoutingAccessor(FieldMetadata routingField){
+       // Produce an accessor that is ignored when serializing entity source.
+       final InvocableMemberBodyBuilder bodyBuilder = new InvocableMemberBodyBuilder();
+       final String fieldName = routingField.getFieldName().getSymbolName();
+       if (JavaType.STRING.equals(routingField.getFieldType())) {
+          bodyBuilder.appendFormalLine("return this." + fieldName + ";");
+       } else {
+          bodyBuilder.appendFormalLine("return this." + fieldName + " == null ? null : String.valueOf(this." + fieldName + ");");
+       }
+       
+       final MethodMetadataBuilder methodBuilder = new MethodMetadataBuilder(getId(), Modifier.PUBLIC, 
+             new JavaSymbolName(ROUTING_ACCESSOR_NAME), JavaType.STRING, bodyBuilder);
+       methodBuilder.addAnnotation(new AnnotationMetadataBuilder(JSON_IGNORE));
+       return methodBuilder;
+    }
+    
     private MethodMetadataBuilder getIdentifierMutator(FieldMetadata idField){
        // Specify the desired method name
        JavaSymbolName requiredMutatorName = BeanInfoUtils.getMutatorMethodName(idField);
@@ -35,9 +35,11 @@ import org.springframework.roo.classpath.customdata.taggers.AnnotatedTypeMatcher
 import org.springframework.roo.classpath.customdata.taggers.CustomDataKeyDecorator;
 import org.springframework.roo.classpath.customdata.taggers.FieldMatcher;
 import org.springframework.roo.classpath.customdata.taggers.MethodMatcher;
+import org.springframework.roo.classpath.details.ClassOrInterfaceTypeDetails;
 import org.springframework.roo.classpath.details.annotations.AnnotationMetadataBuilder;
 import org.springframework.roo.classpath.itd.AbstractItdMetadataProvider;
 import org.springframework.roo.classpath.itd.ItdTypeDetailsProvidingMetadataItem;
+import org.springframework.roo.metadata.MetadataNotificationListener;
 import org.springframework.roo.model.JavaType;
 import org.springframework.roo.model.SpringJavaType;
 import org.springframework.roo.project.LogicalPath;
@@ -64,6 +66,25 @@ public final class ElasticsearchEntityMetadataProvider extends AbstractItdMetada
  
     @Reference
     private CustomDataKeyDecorator customDataKeyDecorator;
+    
+    private final MetadataFingerprintCache fingerprintCache = new MetadataFingerprintCache();
+    
+    // Metadata of entities that have been deleted or are no longer annotated has to be forgotten.
+    private final MetadataNotificationListener governorListener = new MetadataNotificationListener() {
+        public void notify(final String upstreamDependency, final String downstreamDependency) {
+            if (upstreamDependency == null || !PhysicalTypeIdentifier.isValid(upstreamDependency)) {
+                return;
+            }
+            final JavaType javaType = PhysicalTypeIdentifier.getJavaType(upstreamDependency);
+            final String entityMid = createLocalIdentifier(javaType, PhysicalTypeIdentifier.getPath(upstreamDependency));
+            if (fingerprintCache.contains(entityMid)) {
+                final ClassOrInterfaceTypeDetails entity = typeLocationService.getTypeDetails(javaType);
+                if (entity == null || entity.getAnnotation(ElasticsearchJavaType.ROO_ELASTICSEARCH_ENTITY) == null) {
+                    fingerprintCache.remove(entityMid);
+                }
+            }
+        }
+    };
    
     /**
      * The activate method for this OSGi component, this will be called by the OSGi container upon bundle activation 
@@ -72,6 +93,7 @@ public final class ElasticsearchEntityMetadataProvider extends AbstractItdMetada
      */
     protected void activate(ComponentContext context) {
         metadataDependencyRegistry.registerDependency(PhysicalTypeIdentifier.getMetadataIdentiferType(), getProvidesType());
+        metadataDependencyRegistry.addNotificationListener(governorListener);
         addMetadataTrigger(new JavaType(RooElasticsearchEntity.class.getName()));
         customDataKeyDecorator.registerMatchers(getClass(),
               PERSISTENT_TYPE_MATCHER, ID_FIELD_MATCHER, ID_ACCESSOR_MATCHER,
@@ -85,16 +107,27 @@ public final class ElasticsearchEntityMetadataProvider extends AbstractItdMetada
      */
     protected void deactivate(ComponentContext context) {
         metadataDependencyRegistry.deregisterDependency(PhysicalTypeIdentifier.getMetadataIdentiferType(), getProvidesType());
+        metadataDependencyRegistry.removeNotificationListener(governorListener);
         removeMetadataTrigger(new JavaType(RooElasticsearchEntity.class.getName())); 
         customDataKeyDecorator.unregisterMatchers(getClass());
+        fingerprintCache.clear();
     }
     
     /**
      * Return an instance of the Metadata offered by this add-on
      */
     protected ItdTypeDetailsProvidingMetadataItem getMetadata(String metadataIdentificationString, JavaType aspectName, PhysicalTypeMetadata governorPhysicalTypeMetadata, String itdFilename) {
+        // Reuse previous metadata if neither the annotation nor the governor members have changed.
+        final String fingerprint = MetadataFingerprintCache.fingerprint(governorPhysicalTypeMetadata, ElasticsearchJavaType.ROO_ELASTICSEARCH_ENTITY);
+        final ItdTypeDetailsProvidingMetadataItem previous = fingerprintCache.get(metadataIdentificationString, fingerprint);
+        if (previous != null) {
+            return previous;
+        }
+        
         // Pass dependencies required by the metadata in through its constructor
-        return new ElasticsearchEntityMetadata(metadataIdentificationString, aspectName, governorPhysicalTypeMetadata);
+        final ElasticsearchEntityAnnotationValues annotationValues = new ElasticsearchEntityAnnotationValues(governorPhysicalTypeMetadata);
+        return fingerprintCache.put(metadataIdentificationString, fingerprint, 
+              new ElasticsearchEntityMetadata(metadataIdentificationString, aspectName, governorPhysicalTypeMetadata, annotationValues));
     }
     
     /**
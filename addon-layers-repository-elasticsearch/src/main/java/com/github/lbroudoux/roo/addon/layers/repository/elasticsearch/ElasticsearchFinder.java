@@ -0,0 +1,90 @@
+/*
+ * Licensed to Laurent Broudoux (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.lbroudoux.roo.addon.layers.repository.elasticsearch;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.springframework.roo.model.JavaType;
+
+/**
+ * An exact match finder on some entity fields, declared as <code>field1,field2</code>. Finders are
+ * executed in filter context so that no document is scored and matching bitsets can be cached.
+ * @author Laurent Broudoux
+ */
+public class ElasticsearchFinder {
+
+   private final List<String> fieldNames = new ArrayList<String>();
+   
+   /**
+    * Parses a finder declaration.
+    * @param declaration the <code>field1,field2</code> declaration to parse (required)
+    * @return a non-<code>null</code> finder
+    */
+   public static ElasticsearchFinder parse(final String declaration) {
+      Validate.notBlank(declaration, "Finder declaration required");
+      return new ElasticsearchFinder(StringUtils.split(declaration, ','));
+   }
+   
+   private ElasticsearchFinder(final String[] fields) {
+      for (String field : fields) {
+         field = field.trim();
+         if (field.length() > 0 && !fieldNames.contains(field)) {
+            // Field names end up in the finder method name.
+            Validate.isTrue(ElasticsearchProjection.isJavaIdentifier(field), "Finder field '%s' is not a valid Java identifier", field);
+            fieldNames.add(field);
+         }
+      }
+      Validate.notEmpty(fieldNames, "Finder must declare at least one field");
+   }
+   
+   /**
+    * Returns the names of the entity fields this finder matches on
+    * @return a non-empty list
+    */
+   public List<String> getFieldNames() {
+      return fieldNames;
+   }
+   
+   /**
+    * Returns the normalized declaration of this finder
+    * @return a non-blank declaration
+    */
+   public String getDeclaration() {
+      return StringUtils.join(fieldNames, ",");
+   }
+   
+   /**
+    * Returns the name of the method generated for this finder
+    * @param entityType the type of entity being managed (required)
+    * @return a non-blank method name (eg: findTweetByAuthorAndCreatedAt)
+    */
+   public String getMethodName(final JavaType entityType) {
+      final StringBuilder methodName = new StringBuilder("find").append(entityType.getSimpleTypeName()).append("By");
+      for (int i = 0; i < fieldNames.size(); i++) {
+         if (i > 0) {
+            methodName.append("And");
+         }
+         methodName.append(StringUtils.capitalize(fieldNames.get(i)));
+      }
+      return methodName.toString();
+   }
+}
@@ -31,4 +31,7 @@ public class ElasticsearchJavaType {
    
    public static final JavaType ROO_REPOSITORY_ELASTICSEARCH = new JavaType(
          "com.github.lbroudoux.roo.addon.layers.repository.elasticsearch.RooElasticsearchRepository");
+   
+   public static final JavaType ROO_REPOSITORY_ELASTICSEARCH_IMPL = new JavaType(
+         "com.github.lbroudoux.roo.addon.layers.repository.elasticsearch.RooElasticsearchRepositoryImpl");
 }
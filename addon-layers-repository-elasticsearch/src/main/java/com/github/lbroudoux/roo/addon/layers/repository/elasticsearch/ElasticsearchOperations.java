@@ -34,16 +34,55 @@ public interface ElasticsearchOperations {
 
     /**
      * Create a Java entity type with the trigger of this add-on.
+     * @param classType the entity type to create (required)
+     * @param shards the number of primary shards of entity index (<code>null</code> for default)
+     * @param replicas the number of replicas of entity index (<code>null</code> for default)
+     * @param refreshInterval the refresh interval of entity index (<code>null</code> for default)
+     * @param indexStoreType the store type of entity index (<code>null</code> for default)
      */
-    void createType(JavaType classType);
+    void createType(JavaType classType, Integer shards, Integer replicas, String refreshInterval, String indexStoreType);
     
     /**
      * Create a Java repository type for the specified domain type.
+     * @param interfaceType the repository type to create (required)
+     * @param domainType the entity type managed by repository (required)
+     * @param projections the projection declarations with semicolon as separation (may be <code>null</code>)
+     * @param role the methods repository serves among repositories of domain type (<code>null</code> for default)
      */
-    void createRepository(JavaType interfaceType, JavaType domainType);
+    void createRepository(JavaType interfaceType, JavaType domainType, String projections, RepositoryRole role);
+    
+    /**
+     * Create the Java custom implementation of an existing Elasticsearch repository if it does not exist yet. 
+     * Spring Data routes to it the repository methods it does not implement. Repositories created by 
+     * {@link #createRepository(JavaType, JavaType, String, RepositoryRole)} already have one.
+     * @param repositoryType the repository type to implement (required)
+     */
+    void createRepositoryImplementation(JavaType repositoryType);
+    
+    /**
+     * Add an exact match finder to an Elasticsearch repository.
+     * @param repositoryType the repository type to add finder to (required)
+     * @param fields the entity fields to match with coma as separation (required)
+     */
+    void addFinder(JavaType repositoryType, String fields);
+    
+    /**
+     * Create a Spring bean streaming entities of the specified type into Elasticsearch through bulk requests.
+     * @param entityType the Elasticsearch entity type to index (required)
+     * @param indexerType the indexer type to create (<code>null</code> for an <code>Indexer</code> suffixed entity type)
+     */
+    void createIndexer(JavaType entityType, JavaType indexerType);
     
     /**
      * Setup all add-on artifacts (dependencies in this case).
+     * @param local whether to use a local embedded node
+     * @param clusterNodes the cluster nodes to connect the transport client to (<code>null</code> in local mode)
+     * @param clusterName the name of the cluster to connect to (<code>null</code> for default)
+     * @param sniff whether the transport client discovers the other cluster nodes (<code>null</code> for default)
+     * @param pingTimeout the timeout of transport client node pings (<code>null</code> for default)
+     * @param pingInterval the interval between transport client node pings (<code>null</code> for default)
+     * @param connectionsPerNode the number of regular connections to each node (<code>null</code> for default)
      */
-    void setup(Boolean local, String clusterNodes);
+    void setup(Boolean local, String clusterNodes, String clusterName, Boolean sniff, String pingTimeout, 
+          String pingInterval, Integer connectionsPerNode);
 }
\ No newline at end of file
@@ -39,11 +39,17 @@ import org.springframework.roo.classpath.PhysicalTypeCategory;
 import org.springframework.roo.classpath.PhysicalTypeIdentifier;
 import org.springframework.roo.classpath.TypeLocationService;
 import org.springframework.roo.classpath.TypeManagementService;
+import org.springframework.roo.classpath.details.ClassOrInterfaceTypeDetails;
 import org.springframework.roo.classpath.details.ClassOrInterfaceTypeDetailsBuilder;
+import org.springframework.roo.classpath.details.DefaultPhysicalTypeMetadata;
 import org.springframework.roo.classpath.details.MethodMetadataBuilder;
 import org.springframework.roo.classpath.details.annotations.AnnotationAttributeValue;
+import org.springframework.roo.classpath.details.annotations.AnnotationMetadata;
 import org.springframework.roo.classpath.details.annotations.AnnotationMetadataBuilder;
+import org.springframework.roo.classpath.details.annotations.ArrayAttributeValue;
 import org.springframework.roo.classpath.details.annotations.ClassAttributeValue;
+import org.springframework.roo.classpath.details.annotations.IntegerAttributeValue;
+import org.springframework.roo.classpath.details.annotations.StringAttributeValue;
 import org.springframework.roo.classpath.itd.InvocableMemberBodyBuilder;
 import org.springframework.roo.model.DataType;
 import org.springframework.roo.model.JavaSymbolName;
@@ -62,6 +68,8 @@ import org.springframework.roo.support.util.FileUtils;
 import org.springframework.roo.support.util.XmlUtils;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
 
 /**
  * Implementation of operations this add-on offers.
@@ -72,6 +80,15 @@ import org.w3c.dom.Element;
 public class ElasticsearchOperationsImpl implements ElasticsearchOperations {
     
     private static final String ELASTICSEARCH_XML = "applicationContext-es.xml";
+    private static final String INDEXER_TEMPLATE = "EntityIndexer.java-template";
+    private static final String EMBEDDED_NODE_FACTORY_BEAN = "EmbeddedNodeClientFactoryBean";
+    private static final String CLIENT_BEAN_ID = "client";
+    private static final String CLUSTER_NODES_PROPERTY = "elasticsearch.clusterNodes";
+    private static final String CLUSTER_NAME_PROPERTY = "elasticsearch.clusterName";
+    private static final String SNIFF_PROPERTY = "elasticsearch.client.sniff";
+    private static final String PING_TIMEOUT_PROPERTY = "elasticsearch.client.pingTimeout";
+    private static final String PING_INTERVAL_PROPERTY = "elasticsearch.client.pingInterval";
+    private static final String CONNECTIONS_PER_NODE_PROPERTY = "elasticsearch.client.connectionsPerNode";
     
     @Reference private FileManager fileManager;
     @Reference private PathResolver pathResolver;
@@ -95,9 +112,11 @@ public class ElasticsearchOperationsImpl implements ElasticsearchOperations {
     }
 
     /** {@inheritDoc} */
-    public void createType(JavaType classType) {
+    public void createType(JavaType classType, Integer shards, Integer replicas, String refreshInterval, String indexStoreType) {
         // Use Roo's Assert type for null checks
         Validate.notNull(classType, "Class type required");
+        Validate.isTrue(shards == null || shards > 0, "Shards number must be strictly positive");
+        Validate.isTrue(replicas == null || replicas >= 0, "Replicas number must be positive");
 
         final String classIdentifier = typeLocationService.getPhysicalTypeCanonicalPath(classType, 
               pathResolver.getFocusedPath(Path.SRC_MAIN_JAVA));
@@ -114,13 +133,25 @@ public class ElasticsearchOperationsImpl implements ElasticsearchOperations {
         cidBuilder.addAnnotation(new AnnotationMetadataBuilder(RooJavaType.ROO_TO_STRING));
         
         final List<AnnotationAttributeValue<?>> attributes = new ArrayList<AnnotationAttributeValue<?>>();
+        if (shards != null) {
+           attributes.add(new IntegerAttributeValue(new JavaSymbolName("shards"), shards));
+        }
+        if (replicas != null) {
+           attributes.add(new IntegerAttributeValue(new JavaSymbolName("replicas"), replicas));
+        }
+        if (StringUtils.isNotBlank(refreshInterval)) {
+           attributes.add(new StringAttributeValue(new JavaSymbolName("refreshInterval"), refreshInterval));
+        }
+        if (StringUtils.isNotBlank(indexStoreType)) {
+           attributes.add(new StringAttributeValue(new JavaSymbolName("indexStoreType"), indexStoreType));
+        }
         cidBuilder.addAnnotation(new AnnotationMetadataBuilder(new JavaType(RooElasticsearchEntity.class), attributes));
         
         typeManagementService.createOrUpdateTypeOnDisk(cidBuilder.build());
     }
     
     /** {@inheritDoc} */
-    public void createRepository(JavaType interfaceType, JavaType domainType){
+    public void createRepository(JavaType interfaceType, JavaType domainType, String projections, RepositoryRole role){
         // Use Roo's Assert type for null checks
         Validate.notNull(interfaceType, "Interface type required");
         Validate.notNull(domainType, "Domain type required");
@@ -135,6 +166,20 @@ public class ElasticsearchOperationsImpl implements ElasticsearchOperations {
               ElasticsearchJavaType.ROO_REPOSITORY_ELASTICSEARCH);
         interfaceAnnotationMetadata.addAttribute(new ClassAttributeValue(
               new JavaSymbolName("domainType"), domainType));
+        if (StringUtils.isNotBlank(projections)){
+           final List<StringAttributeValue> projectionValues = new ArrayList<StringAttributeValue>();
+           for (String projection : StringUtils.split(projections, ';')){
+              // Parse to fail fast on malformed declarations.
+              ElasticsearchProjection.parse(projection);
+              projectionValues.add(new StringAttributeValue(new JavaSymbolName("value"), projection.trim()));
+           }
+           interfaceAnnotationMetadata.addAttribute(new ArrayAttributeValue<StringAttributeValue>(
+                 new JavaSymbolName(RooElasticsearchRepository.PROJECTIONS_ATTRIBUTE), projectionValues));
+        }
+        if (role != null && role != RepositoryRole.DEFAULT){
+           interfaceAnnotationMetadata.addEnumAttribute(RooElasticsearchRepository.ROLE_ATTRIBUTE, 
+                 new JavaType(RepositoryRole.class.getName()), role.name());
+        }
         final String interfaceMdId = PhysicalTypeIdentifier.createIdentifier(
               interfaceType, pathResolver.getPath(interfaceIdentifier));
         final ClassOrInterfaceTypeDetailsBuilder cidBuilder = new ClassOrInterfaceTypeDetailsBuilder(
@@ -148,24 +193,150 @@ public class ElasticsearchOperationsImpl implements ElasticsearchOperations {
               new JavaSymbolName("findAll"), listType,
               new InvocableMemberBodyBuilder()));
         typeManagementService.createOrUpdateTypeOnDisk(cidBuilder.build());
+        writeRepositoryImplementation(interfaceType);
     }
     
     /** {@inheritDoc} */
-    public void setup(Boolean local, String clusterNodes) {
+    public void createRepositoryImplementation(JavaType repositoryType){
+        Validate.notNull(repositoryType, "Repository type required");
+        final ClassOrInterfaceTypeDetails repository = typeLocationService.getTypeDetails(repositoryType);
+        Validate.notNull(repository, "Repository '%s' could not be found", repositoryType.getFullyQualifiedTypeName());
+        Validate.notNull(repository.getAnnotation(ElasticsearchJavaType.ROO_REPOSITORY_ELASTICSEARCH), 
+              "Repository '%s' is not annotated with @RooElasticsearchRepository", repositoryType.getFullyQualifiedTypeName());
+        writeRepositoryImplementation(repositoryType);
+    }
+    
+    private void writeRepositoryImplementation(final JavaType repositoryType){
+        // Spring Data finds custom implementations by name.
+        final JavaType implementationType = new JavaType(repositoryType.getFullyQualifiedTypeName() + RooElasticsearchRepositoryImpl.IMPLEMENTATION_SUFFIX);
+        final String implementationIdentifier = pathResolver.getFocusedCanonicalPath(Path.SRC_MAIN_JAVA, implementationType);
+        if (fileManager.exists(implementationIdentifier)) {
+           return; // Type exists already - nothing to do
+        }
+        
+        final AnnotationMetadataBuilder implementationAnnotationMetadata = new AnnotationMetadataBuilder(
+              ElasticsearchJavaType.ROO_REPOSITORY_ELASTICSEARCH_IMPL);
+        implementationAnnotationMetadata.addAttribute(new ClassAttributeValue(
+              new JavaSymbolName(RooElasticsearchRepositoryImpl.REPOSITORY_ATTRIBUTE), repositoryType));
+        final String implementationMdId = PhysicalTypeIdentifier.createIdentifier(
+              implementationType, pathResolver.getPath(implementationIdentifier));
+        final ClassOrInterfaceTypeDetailsBuilder cidBuilder = new ClassOrInterfaceTypeDetailsBuilder(
+              implementationMdId, Modifier.PUBLIC, implementationType, PhysicalTypeCategory.CLASS);
+        cidBuilder.addAnnotation(implementationAnnotationMetadata.build());
+        typeManagementService.createOrUpdateTypeOnDisk(cidBuilder.build());
+    }
+    
+    /** {@inheritDoc} */
+    public void addFinder(JavaType repositoryType, String fields){
+        Validate.notNull(repositoryType, "Repository type required");
+        final ClassOrInterfaceTypeDetails repository = typeLocationService.getTypeDetails(repositoryType);
+        Validate.notNull(repository, "Repository '%s' could not be found", repositoryType.getFullyQualifiedTypeName());
+        final AnnotationMetadata annotation = repository.getAnnotation(ElasticsearchJavaType.ROO_REPOSITORY_ELASTICSEARCH);
+        Validate.notNull(annotation, "Repository '%s' is not annotated with @RooElasticsearchRepository", 
+              repositoryType.getFullyQualifiedTypeName());
+        
+        // Check finder fields against domain type.
+        final ElasticsearchFinder finder = ElasticsearchFinder.parse(fields);
+        final JavaType domainType = (JavaType) annotation.getAttribute(
+              new JavaSymbolName(RooElasticsearchRepository.DOMAIN_TYPE_ATTRIBUTE)).getValue();
+        final ClassOrInterfaceTypeDetails entity = typeLocationService.getTypeDetails(domainType);
+        Validate.notNull(entity, "Entity '%s' could not be found", domainType.getFullyQualifiedTypeName());
+        for (String fieldName : finder.getFieldNames()){
+           Validate.notNull(entity.getDeclaredField(new JavaSymbolName(fieldName)), "Field '%s' could not be found on '%s'", 
+                 fieldName, domainType.getSimpleTypeName());
+        }
+        
+        final List<StringAttributeValue> finderValues = new ArrayList<StringAttributeValue>();
+        final AnnotationAttributeValue<?> existingFinders = annotation.getAttribute(
+              new JavaSymbolName(RooElasticsearchRepository.FINDERS_ATTRIBUTE));
+        if (existingFinders instanceof ArrayAttributeValue){
+           for (Object existingFinder : ((ArrayAttributeValue<?>) existingFinders).getValue()){
+              final StringAttributeValue finderValue = (StringAttributeValue) existingFinder;
+              if (finder.getDeclaration().equals(ElasticsearchFinder.parse(finderValue.getValue()).getDeclaration())){
+                 return; // Finder exists already - nothing to do
+              }
+              finderValues.add(finderValue);
+           }
+        }
+        finderValues.add(new StringAttributeValue(new JavaSymbolName("value"), finder.getDeclaration()));
+        
+        final AnnotationMetadataBuilder annotationBuilder = new AnnotationMetadataBuilder(annotation);
+        annotationBuilder.addAttribute(new ArrayAttributeValue<StringAttributeValue>(
+              new JavaSymbolName(RooElasticsearchRepository.FINDERS_ATTRIBUTE), finderValues));
+        final ClassOrInterfaceTypeDetailsBuilder cidBuilder = new ClassOrInterfaceTypeDetailsBuilder(repository);
+        cidBuilder.updateTypeAnnotation(annotationBuilder.build());
+        typeManagementService.createOrUpdateTypeOnDisk(cidBuilder.build());
+    }
+    
+    /** {@inheritDoc} */
+    public void createIndexer(JavaType entityType, JavaType indexerType){
+        Validate.notNull(entityType, "Entity type required");
+        final ClassOrInterfaceTypeDetails entity = typeLocationService.getTypeDetails(entityType);
+        Validate.notNull(entity, "Entity '%s' could not be found", entityType.getFullyQualifiedTypeName());
+        Validate.notNull(entity.getAnnotation(ElasticsearchJavaType.ROO_ELASTICSEARCH_ENTITY), 
+              "Entity '%s' is not annotated with @RooElasticsearchEntity", entityType.getFullyQualifiedTypeName());
+        if (indexerType == null){
+           indexerType = new JavaType(entityType.getFullyQualifiedTypeName() + "Indexer");
+        }
+        
+        final String indexerIdentifier = pathResolver.getFocusedCanonicalPath(Path.SRC_MAIN_JAVA, indexerType);
+        if (fileManager.exists(indexerIdentifier)) {
+           return; // Type exists already - nothing to do
+        }
+        
+        final ElasticsearchEntityAnnotationValues entityValues = new ElasticsearchEntityAnnotationValues(
+              new DefaultPhysicalTypeMetadata(entity.getDeclaredByMetadataId(),
+                    typeLocationService.getPhysicalTypeCanonicalPath(entity.getDeclaredByMetadataId()), entity));
+        final Map<String, String> replacements = new HashMap<String, String>();
+        replacements.put("INDEXER_PACKAGE", indexerType.getPackage().getFullyQualifiedPackageName());
+        replacements.put("INDEXER_NAME", indexerType.getSimpleTypeName());
+        replacements.put("ENTITY_TYPE", entityType.getFullyQualifiedTypeName());
+        replacements.put("ENTITY_NAME", entityType.getSimpleTypeName());
+        replacements.put("ROUTING", entityValues.isRouted() 
+              ? "\n            .setRouting(entity." + ElasticsearchEntityMetadata.ROUTING_ACCESSOR_NAME + "())" : "");
+        replacements.put("INDEX_EXPRESSION", entityValues.isRolling() 
+              ? "getPeriodIndex(DOCUMENT.indexName(), new java.util.Date())" : "DOCUMENT.indexName()");
+        replacements.put("PERIOD_INDEX_METHOD", entityValues.isRolling() ? getPeriodIndexMethod(entityValues.getRolling()) : "");
+        createFromTemplate(INDEXER_TEMPLATE, indexerIdentifier, replacements);
+    }
+    
+    /** {@inheritDoc} */
+    public void setup(Boolean local, String clusterNodes, String clusterName, Boolean sniff, String pingTimeout, 
+          String pingInterval, Integer connectionsPerNode) {
+       Validate.isTrue(!Boolean.FALSE.equals(local) || StringUtils.isNotBlank(clusterNodes), 
+             "Cluster nodes required when not running a local node");
+       Validate.isTrue(connectionsPerNode == null || connectionsPerNode > 0, "Connections per node must be strictly positive");
        final String moduleName = projectOperations.getFocusedModuleName();
-       writeProperties(clusterNodes, moduleName);
+       writeProperties(clusterNodes, clusterName, sniff, pingTimeout, pingInterval, connectionsPerNode, moduleName);
        manageDependencies(moduleName);
        manageAppCtx(local, clusterNodes, moduleName);
     }
     
-    private void writeProperties(String clusterNodes, final String moduleName){
+    private void writeProperties(String clusterNodes, String clusterName, Boolean sniff, String pingTimeout, 
+          String pingInterval, Integer connectionsPerNode, final String moduleName){
        // Write properties only if remote mode is specified.
        if (StringUtils.isNotBlank(clusterNodes)){
           final Map<String, String> properties = new HashMap<String, String>();
-          properties.put("elasticsearch.clusterNodes", clusterNodes);
+          properties.put(CLUSTER_NODES_PROPERTY, clusterNodes);
+          // Only override the tuning options given, the others keep their current or default value.
+          if (StringUtils.isNotBlank(clusterName)){
+             properties.put(CLUSTER_NAME_PROPERTY, clusterName);
+          }
+          if (sniff != null){
+             properties.put(SNIFF_PROPERTY, sniff.toString());
+          }
+          if (StringUtils.isNotBlank(pingTimeout)){
+             properties.put(PING_TIMEOUT_PROPERTY, pingTimeout);
+          }
+          if (StringUtils.isNotBlank(pingInterval)){
+             properties.put(PING_INTERVAL_PROPERTY, pingInterval);
+          }
+          if (connectionsPerNode != null){
+             properties.put(CONNECTIONS_PER_NODE_PROPERTY, connectionsPerNode.toString());
+          }
           propFileOperations.addProperties(Path.SPRING_CONFIG_ROOT
                   .getModulePathId(projectOperations.getFocusedModuleName()),
-                  "database.properties", properties, true, false);
+                  "database.properties", properties, true, true);
        }
     }
     
@@ -208,24 +379,7 @@ public class ElasticsearchOperationsImpl implements ElasticsearchOperations {
       final String appCtxId = pathResolver.getFocusedIdentifier(Path.SPRING_CONFIG_ROOT, ELASTICSEARCH_XML);
       
       if (!fileManager.exists(appCtxId)) {
-         InputStream inputStream = null;
-         OutputStream outputStream = null;
-         try {
-            inputStream = FileUtils.getInputStream(getClass(),
-                  ELASTICSEARCH_XML);
-            final MutableFile mutableFile = fileManager.createFile(appCtxId);
-            String input = IOUtils.toString(inputStream);
-            input = input.replace("TO_BE_CHANGED_BY_ADDON", projectOperations
-                  .getTopLevelPackage(moduleName)
-                  .getFullyQualifiedPackageName());
-            outputStream = mutableFile.getOutputStream();
-            IOUtils.write(input, outputStream);
-         } catch (final IOException e) {
-            throw new IllegalStateException("Unable to create file " + appCtxId);
-         } finally {
-            IOUtils.closeQuietly(inputStream);
-            IOUtils.closeQuietly(outputStream);
-         }
+         createFromTemplate(ELASTICSEARCH_XML, appCtxId, getTopLevelPackageReplacement(moduleName));
       }
       
       final Document document = XmlUtils.readXml(fileManager.getInputStream(appCtxId));
@@ -233,17 +387,103 @@ public class ElasticsearchOperationsImpl implements ElasticsearchOperations {
       Element esClient = null;
       
       if (StringUtils.isNotBlank(clusterNodes)){
-         esClient = document.createElement("elasticsearch:transport-client");
-         esClient.setAttribute("id", "client");
-         esClient.setAttribute("cluster-nodes", clusterNodes);
-         root.appendChild(esClient);
+         // Use the factory bean directly so that every client setting can be externalized.
+         esClient = document.createElement("bean");
+         esClient.setAttribute("id", CLIENT_BEAN_ID);
+         esClient.setAttribute("class", "org.springframework.data.elasticsearch.client.TransportClientFactoryBean");
+         final Element nodes = document.createElement("property");
+         nodes.setAttribute("name", "clusterNodes");
+         nodes.setAttribute("value", "${" + CLUSTER_NODES_PROPERTY + "}");
+         esClient.appendChild(nodes);
+         final Element settings = document.createElement("property");
+         settings.setAttribute("name", "properties");
+         final Element props = document.createElement("props");
+         props.appendChild(createProp(document, "cluster.name", CLUSTER_NAME_PROPERTY, "elasticsearch"));
+         props.appendChild(createProp(document, "client.transport.sniff", SNIFF_PROPERTY, "false"));
+         props.appendChild(createProp(document, "client.transport.ping_timeout", PING_TIMEOUT_PROPERTY, "5s"));
+         props.appendChild(createProp(document, "client.transport.nodes_sampler_interval", PING_INTERVAL_PROPERTY, "5s"));
+         props.appendChild(createProp(document, "transport.connections_per_node.reg", CONNECTIONS_PER_NODE_PROPERTY, "6"));
+         settings.appendChild(props);
+         esClient.appendChild(settings);
       } else {
-         esClient = document.createElement("elasticsearch:node-client");
-         esClient.setAttribute("id", "client");
-         esClient.setAttribute("local", "true");
+         // Embedded node is tuned for tests and development, see the factory bean for details.
+         final String topLevelPackage = projectOperations.getTopLevelPackage(moduleName).getFullyQualifiedPackageName();
+         final String factoryBeanId = pathResolver.getFocusedIdentifier(Path.SRC_MAIN_JAVA, 
+               topLevelPackage.replace('.', '/') + "/elasticsearch/" + EMBEDDED_NODE_FACTORY_BEAN + ".java");
+         if (!fileManager.exists(factoryBeanId)) {
+            createFromTemplate(EMBEDDED_NODE_FACTORY_BEAN + ".java-template", factoryBeanId, getTopLevelPackageReplacement(moduleName));
+         }
+         esClient = document.createElement("bean");
+         esClient.setAttribute("id", CLIENT_BEAN_ID);
+         esClient.setAttribute("class", topLevelPackage + ".elasticsearch." + EMBEDDED_NODE_FACTORY_BEAN);
+      }
+      
+      // Replace any client defined by a previous setup so that a single one is started.
+      final List<Element> existingClients = findClients(root);
+      if (existingClients.isEmpty()){
          root.appendChild(esClient);
+      } else {
+         root.replaceChild(esClient, existingClients.get(0));
+         for (Element existingClient : existingClients.subList(1, existingClients.size())){
+            root.removeChild(existingClient);
+         }
       }
       
       fileManager.createOrUpdateTextFileIfRequired(appCtxId, XmlUtils.nodeToString(document), false);
     }
-}
\ No newline at end of file
+    
+    private Map<String, String> getTopLevelPackageReplacement(final String moduleName){
+       final Map<String, String> replacements = new HashMap<String, String>();
+       replacements.put("TO_BE_CHANGED_BY_ADDON", projectOperations
+             .getTopLevelPackage(moduleName)
+             .getFullyQualifiedPackageName());
+       return replacements;
+    }
+    
+    private void createFromTemplate(final String templateName, final String fileId, final Map<String, String> replacements){
+       InputStream inputStream = null;
+       OutputStream outputStream = null;
+       try {
+          inputStream = FileUtils.getInputStream(getClass(), templateName);
+          final MutableFile mutableFile = fileManager.createFile(fileId);
+          String input = IOUtils.toString(inputStream);
+          for (Map.Entry<String, String> replacement : replacements.entrySet()){
+             input = input.replace(replacement.getKey(), replacement.getValue());
+          }
+          outputStream = mutableFile.getOutputStream();
+          IOUtils.write(input, outputStream);
+       } catch (final IOException e) {
+          throw new IllegalStateException("Unable to create file " + fileId);
+       } finally {
+          IOUtils.closeQuietly(inputStream);
+          IOUtils.closeQuietly(outputStream);
+       }
+    }
+    
+    private String getPeriodIndexMethod(final RollingPeriod rolling){
+       final StringBuilder method = new StringBuilder("\n\n   private String getPeriodIndex(String indexName, java.util.Date date) {");
+       for (String line : RepositoryElasticsearchLayerSupport.getPeriodIndexLines(rolling)){
+          method.append("\n      ").append(line);
+       }
+       return method.append("\n   }").toString();
+    }
+    
+    private List<Element> findClients(final Element root){
+       final List<Element> clients = new ArrayList<Element>();
+       final NodeList children = root.getChildNodes();
+       for (int i = 0; i < children.getLength(); i++){
+          final Node child = children.item(i);
+          if (child instanceof Element && CLIENT_BEAN_ID.equals(((Element) child).getAttribute("id"))){
+             clients.add((Element) child);
+          }
+       }
+       return clients;
+    }
+    
+    private Element createProp(final Document document, final String key, final String property, final String defaultValue){
+       final Element prop = document.createElement("prop");
+       prop.setAttribute("key", key);
+       prop.setTextContent("${" + property + ":" + defaultValue + "}");
+       return prop;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Licensed to Laurent Broudoux (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.lbroudoux.roo.addon.layers.repository.elasticsearch;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * A named subset of entity fields fetched from <code>_source</code> by projection finders. Projections
+ * are declared as <code>name:field1,field2</code> where fields prefixed with <code>!</code> are excluded
+ * rather than included.
+ * @author Laurent Broudoux
+ */
+public class ElasticsearchProjection {
+
+   /** Separates projection name from its fields. */
+   public static final char NAME_SEPARATOR = ':';
+   
+   /** Prefixes the fields to exclude from projection. */
+   public static final String EXCLUDE_PREFIX = "!";
+   
+   private final String name;
+   private final List<String> includes = new ArrayList<String>();
+   private final List<String> excludes = new ArrayList<String>();
+   
+   /**
+    * Parses a projection declaration.
+    * @param declaration the <code>name:field1,!field2</code> declaration to parse (required)
+    * @return a non-<code>null</code> projection
+    */
+   public static ElasticsearchProjection parse(final String declaration) {
+      Validate.notBlank(declaration, "Projection declaration required");
+      final int separator = declaration.indexOf(NAME_SEPARATOR);
+      Validate.isTrue(separator > 0, "Projection '%s' must be declared as name:field1,field2", declaration);
+      return new ElasticsearchProjection(declaration.substring(0, separator).trim(), 
+            StringUtils.split(declaration.substring(separator + 1), ','));
+   }
+   
+   private ElasticsearchProjection(final String name, final String[] fields) {
+      Validate.isTrue(isJavaIdentifier(name), "Projection name '%s' is not a valid Java identifier", name);
+      this.name = name;
+      for (String field : fields) {
+         field = field.trim();
+         if (field.startsWith(EXCLUDE_PREFIX)) {
+            field = field.substring(EXCLUDE_PREFIX.length()).trim();
+            Validate.notBlank(field, "Projection '%s' excludes a blank field", name);
+            if (!excludes.contains(field)) {
+               excludes.add(field);
+            }
+         } else if (field.length() > 0 && !includes.contains(field)) {
+            includes.add(field);
+         }
+      }
+      Validate.isTrue(!includes.isEmpty() || !excludes.isEmpty(), "Projection '%s' must declare at least one field", name);
+      for (String field : includes) {
+         Validate.isTrue(!excludes.contains(field), "Projection '%s' both includes and excludes field '%s'", name, field);
+      }
+   }
+   
+   /**
+    * Tell if a declared name can be used within generated Java code.
+    * @param name the name to check (required)
+    * @return true if name is a valid Java identifier
+    */
+   static boolean isJavaIdentifier(final String name) {
+      if (name.length() == 0 || !Character.isJavaIdentifierStart(name.charAt(0))) {
+         return false;
+      }
+      for (int i = 1; i < name.length(); i++) {
+         if (!Character.isJavaIdentifierPart(name.charAt(i))) {
+            return false;
+         }
+      }
+      return true;
+   }
+   
+   /**
+    * Returns the name of this projection
+    * @return a non-blank Java identifier
+    */
+   public String getName() {
+      return name;
+   }
+   
+   /**
+    * Returns the fields to include, every field if empty
+    * @return a non-<code>null</code> list
+    */
+   public List<String> getIncludes() {
+      return includes;
+   }
+   
+   /**
+    * Returns the fields to exclude
+    * @return a non-<code>null</code> list
+    */
+   public List<String> getExcludes() {
+      return excludes;
+   }
+}
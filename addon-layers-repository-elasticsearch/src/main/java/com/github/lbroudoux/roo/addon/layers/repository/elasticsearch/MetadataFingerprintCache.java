@@ -0,0 +1,161 @@
+/*
+ * Licensed to Laurent Broudoux (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.lbroudoux.roo.addon.layers.repository.elasticsearch;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.roo.classpath.PhysicalTypeMetadata;
+import org.springframework.roo.classpath.details.ClassOrInterfaceTypeDetails;
+import org.springframework.roo.classpath.details.FieldMetadata;
+import org.springframework.roo.classpath.details.MethodMetadata;
+import org.springframework.roo.classpath.details.annotations.AnnotatedJavaType;
+import org.springframework.roo.classpath.details.annotations.AnnotationMetadata;
+import org.springframework.roo.classpath.itd.ItdTypeDetailsProvidingMetadataItem;
+import org.springframework.roo.model.JavaSymbolName;
+import org.springframework.roo.model.JavaType;
+
+/**
+ * Remembers the metadata produced for each metadata identifier along with a fingerprint of the governor
+ * it was produced from. Providers compute the fingerprint of everything their ITD depends on - the trigger 
+ * annotation attributes and the governor members - and reuse previous metadata while it does not change, 
+ * so that physical type notifications with no effect on the ITD do not rebuild nor rewrite it.
+ * @author Laurent Broudoux
+ */
+public final class MetadataFingerprintCache {
+
+   private final Map<String, String> fingerprints = new ConcurrentHashMap<String, String>();
+   private final Map<String, ItdTypeDetailsProvidingMetadataItem> metadata = 
+         new ConcurrentHashMap<String, ItdTypeDetailsProvidingMetadataItem>();
+
+   /**
+    * Returns the metadata previously produced for an identifier, if produced from the same fingerprint.
+    * @param metadataIdentificationString the identifier of metadata (required)
+    * @param fingerprint the fingerprint of current governor (required)
+    * @return the previous metadata, <code>null</code> if it has to be produced again
+    */
+   public ItdTypeDetailsProvidingMetadataItem get(final String metadataIdentificationString, final String fingerprint) {
+      if (fingerprint.equals(fingerprints.get(metadataIdentificationString))) {
+         return metadata.get(metadataIdentificationString);
+      }
+      return null;
+   }
+
+   /**
+    * Remembers the metadata produced for an identifier and the fingerprint it was produced from.
+    * @param metadataIdentificationString the identifier of metadata (required)
+    * @param fingerprint the fingerprint of governor (required)
+    * @param item the produced metadata (required)
+    * @return the produced metadata
+    */
+   public ItdTypeDetailsProvidingMetadataItem put(final String metadataIdentificationString, final String fingerprint,
+         final ItdTypeDetailsProvidingMetadataItem item) {
+      // Remove fingerprint first so that a concurrent get never matches another item.
+      fingerprints.remove(metadataIdentificationString);
+      metadata.put(metadataIdentificationString, item);
+      fingerprints.put(metadataIdentificationString, fingerprint);
+      return item;
+   }
+
+   /**
+    * Tells if metadata is remembered for an identifier.
+    * @param metadataIdentificationString the identifier of metadata (required)
+    * @return true if some metadata has been remembered
+    */
+   public boolean contains(final String metadataIdentificationString) {
+      return metadata.containsKey(metadataIdentificationString);
+   }
+
+   /**
+    * Forgets the metadata remembered for an identifier, typically once its governor has been deleted
+    * or is no longer annotated.
+    * @param metadataIdentificationString the identifier of metadata (required)
+    */
+   public void remove(final String metadataIdentificationString) {
+      fingerprints.remove(metadataIdentificationString);
+      metadata.remove(metadataIdentificationString);
+   }
+
+   /**
+    * Forgets everything remembered.
+    */
+   public void clear() {
+      fingerprints.clear();
+      metadata.clear();
+   }
+
+   /**
+    * Computes the fingerprint of a governor: its trigger annotation, its declared fields and the signatures
+    * of its declared methods. Annotations of members are part of the fingerprint as they drive mappings.
+    * @param governorPhysicalTypeMetadata the governor to fingerprint (required)
+    * @param annotationType the type of trigger annotation (required)
+    * @return a non-blank fingerprint
+    */
+   public static String fingerprint(final PhysicalTypeMetadata governorPhysicalTypeMetadata, final JavaType annotationType) {
+      final StringBuilder content = new StringBuilder(governorPhysicalTypeMetadata.getId());
+      final ClassOrInterfaceTypeDetails governor = governorPhysicalTypeMetadata.getMemberHoldingTypeDetails();
+      if (governor != null) {
+         appendAnnotation(content, governor.getAnnotation(annotationType));
+         content.append("\nextends ").append(governor.getExtendsTypes());
+         for (final FieldMetadata field : governor.getDeclaredFields()) {
+            content.append("\nfield ").append(field.getModifier()).append(' ').append(field.getFieldType())
+                  .append(' ').append(field.getFieldName()).append(" = ").append(field.getFieldInitializer());
+            for (final AnnotationMetadata annotation : field.getAnnotations()) {
+               appendAnnotation(content, annotation);
+            }
+         }
+         for (final MethodMetadata method : governor.getDeclaredMethods()) {
+            content.append("\nmethod ").append(method.getModifier()).append(' ').append(method.getReturnType())
+                  .append(' ').append(method.getMethodName());
+            for (final AnnotatedJavaType parameterType : method.getParameterTypes()) {
+               content.append(' ').append(parameterType.getJavaType());
+            }
+         }
+      }
+      return digest(content.toString());
+   }
+
+   private static void appendAnnotation(final StringBuilder content, final AnnotationMetadata annotation) {
+      if (annotation == null) {
+         return;
+      }
+      content.append("\n@").append(annotation.getAnnotationType());
+      for (final JavaSymbolName attributeName : annotation.getAttributeNames()) {
+         content.append(' ').append(annotation.getAttribute(attributeName));
+      }
+   }
+
+   private static String digest(final String content) {
+      try {
+         final byte[] hash = MessageDigest.getInstance("SHA-1").digest(content.getBytes("UTF-8"));
+         final StringBuilder hex = new StringBuilder(hash.length * 2);
+         for (byte b : hash) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+         }
+         return hex.toString();
+      } catch (NoSuchAlgorithmException nsae) {
+         throw new IllegalStateException("SHA-1 is not available", nsae);
+      } catch (UnsupportedEncodingException uee) {
+         throw new IllegalStateException("UTF-8 is not available", uee);
+      }
+   }
+}
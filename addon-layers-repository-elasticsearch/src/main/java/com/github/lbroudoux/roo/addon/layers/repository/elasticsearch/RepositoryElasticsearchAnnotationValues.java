@@ -18,10 +18,16 @@
  */
 package com.github.lbroudoux.roo.addon.layers.repository.elasticsearch;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.springframework.roo.classpath.PhysicalTypeMetadata;
+import org.springframework.roo.classpath.details.annotations.AnnotationAttributeValue;
+import org.springframework.roo.classpath.details.annotations.EnumAttributeValue;
 import org.springframework.roo.classpath.details.annotations.populator.AbstractAnnotationValues;
 import org.springframework.roo.classpath.details.annotations.populator.AutoPopulate;
 import org.springframework.roo.classpath.details.annotations.populator.AutoPopulationUtils;
+import org.springframework.roo.model.JavaSymbolName;
 import org.springframework.roo.model.JavaType;
 
 /**
@@ -33,6 +39,26 @@ public class RepositoryElasticsearchAnnotationValues extends AbstractAnnotationV
    @AutoPopulate
    private JavaType domainType;
    
+   @AutoPopulate
+   private int countCacheSeconds = 0;
+   
+   @AutoPopulate
+   private boolean async = false;
+   
+   @AutoPopulate
+   private String[] finders = new String[0];
+   
+   @AutoPopulate
+   private String[] projections = new String[0];
+   
+   @AutoPopulate
+   private int cache = 0;
+   
+   @AutoPopulate
+   private int cacheSeconds = 60;
+   
+   private RepositoryRole role = RepositoryRole.DEFAULT;
+   
    /**
     * Constructor.
     * @param governorPhysicalTypeMetadata the metadata to parse (required)
@@ -40,6 +66,13 @@ public class RepositoryElasticsearchAnnotationValues extends AbstractAnnotationV
    public RepositoryElasticsearchAnnotationValues(final PhysicalTypeMetadata governorPhysicalTypeMetadata){
       super(governorPhysicalTypeMetadata, ElasticsearchJavaType.ROO_REPOSITORY_ELASTICSEARCH);
       AutoPopulationUtils.populate(this, annotationMetadata);
+      if (annotationMetadata != null) {
+         final AnnotationAttributeValue<?> value = annotationMetadata.getAttribute(
+               new JavaSymbolName(RooElasticsearchRepository.ROLE_ATTRIBUTE));
+         if (value instanceof EnumAttributeValue) {
+            role = RepositoryRole.valueOf(((EnumAttributeValue) value).getValue().getField().getSymbolName());
+         }
+      }
    }
    
    /**
@@ -49,4 +82,76 @@ public class RepositoryElasticsearchAnnotationValues extends AbstractAnnotationV
     public JavaType getDomainType(){
        return domainType;
     }
+    
+    /**
+     * Returns how long the entity count is cached by the annotated repository
+     * @return a number of seconds, 0 if caching is disabled
+     */
+    public int getCountCacheSeconds(){
+       return countCacheSeconds;
+    }
+    
+    /**
+     * Returns the projections declared on the annotated repository
+     * @return a non-<code>null</code> list of projections
+     */
+    public List<ElasticsearchProjection> getProjections(){
+       final List<ElasticsearchProjection> result = new ArrayList<ElasticsearchProjection>(projections.length);
+       for (String projection : projections){
+          result.add(ElasticsearchProjection.parse(projection));
+       }
+       return result;
+    }
+    
+    /**
+     * Tells whether non blocking variants of the repository methods are generated
+     * @return true if they are generated
+     */
+    public boolean isAsync(){
+       return async;
+    }
+    
+    /**
+     * Returns the exact match finders declared on the annotated repository
+     * @return a non-<code>null</code> list of finders
+     */
+    public List<ElasticsearchFinder> getFinders(){
+       final List<ElasticsearchFinder> result = new ArrayList<ElasticsearchFinder>(finders.length);
+       for (String finder : finders){
+          result.add(ElasticsearchFinder.parse(finder));
+       }
+       return result;
+    }
+    
+    /**
+     * Tells whether the annotated repository caches lookup and finder results
+     * @return true if results are cached
+     */
+    public boolean isCached(){
+       return cache > 0;
+    }
+    
+    /**
+     * Returns the maximum number of results cached by the annotated repository
+     * @return a number of entries, 0 if caching is disabled
+     */
+    public int getCache(){
+       return cache;
+    }
+    
+    /**
+     * Returns how long results are cached by the annotated repository
+     * @return a number of seconds
+     */
+    public int getCacheSeconds(){
+       return cacheSeconds;
+    }
+    
+    /**
+     * Returns the methods the annotated repository serves among repositories of the same domain type
+     * @return a non-<code>null</code> role
+     */
+    public RepositoryRole getRole(){
+       return role;
+    }
 }
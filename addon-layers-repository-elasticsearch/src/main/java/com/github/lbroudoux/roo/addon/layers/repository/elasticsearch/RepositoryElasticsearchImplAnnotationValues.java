@@ -0,0 +1,52 @@
+/*
+ * Licensed to Laurent Broudoux (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.lbroudoux.roo.addon.layers.repository.elasticsearch;
+
+import org.springframework.roo.classpath.PhysicalTypeMetadata;
+import org.springframework.roo.classpath.details.annotations.populator.AbstractAnnotationValues;
+import org.springframework.roo.classpath.details.annotations.populator.AutoPopulate;
+import org.springframework.roo.classpath.details.annotations.populator.AutoPopulationUtils;
+import org.springframework.roo.model.JavaType;
+
+/**
+ * The values of a {@link RooElasticsearchRepositoryImpl} annotation.
+ * @author Laurent Broudoux
+ */
+public class RepositoryElasticsearchImplAnnotationValues extends AbstractAnnotationValues {
+
+   @AutoPopulate
+   private JavaType repository;
+   
+   /**
+    * Constructor.
+    * @param governorPhysicalTypeMetadata the metadata to parse (required)
+    */
+   public RepositoryElasticsearchImplAnnotationValues(final PhysicalTypeMetadata governorPhysicalTypeMetadata){
+      super(governorPhysicalTypeMetadata, ElasticsearchJavaType.ROO_REPOSITORY_ELASTICSEARCH_IMPL);
+      AutoPopulationUtils.populate(this, annotationMetadata);
+   }
+   
+   /**
+    * Returns the repository implemented by the annotated type
+    * @return a non-<code>null</code> type
+    */
+   public JavaType getRepository(){
+      return repository;
+   }
+}
@@ -0,0 +1,124 @@
+/*
+ * Licensed to Laurent Broudoux (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.lbroudoux.roo.addon.layers.repository.elasticsearch;
+
+import java.util.List;
+
+import org.apache.commons.lang3.Validate;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.springframework.roo.classpath.PhysicalTypeIdentifierNamingUtils;
+import org.springframework.roo.classpath.PhysicalTypeMetadata;
+import org.springframework.roo.classpath.details.ClassOrInterfaceTypeDetailsBuilder;
+import org.springframework.roo.classpath.details.FieldMetadataBuilder;
+import org.springframework.roo.classpath.details.MethodMetadata;
+import org.springframework.roo.classpath.details.MethodMetadataBuilder;
+import org.springframework.roo.classpath.details.annotations.AnnotatedJavaType;
+import org.springframework.roo.classpath.itd.AbstractItdTypeDetailsProvidingMetadataItem;
+import org.springframework.roo.metadata.MetadataIdentificationUtils;
+import org.springframework.roo.model.JavaSymbolName;
+import org.springframework.roo.model.JavaType;
+import org.springframework.roo.project.LogicalPath;
+
+/**
+ * Creates metadata for repository custom implementation ITDs (annotated with {@link RooElasticsearchRepositoryImpl}).
+ * They hold the Elasticsearch specific methods of the repository along with the members these methods rely on.
+ * @author Laurent Broudoux
+ */
+public class RepositoryElasticsearchImplMetadata extends AbstractItdTypeDetailsProvidingMetadataItem {
+
+   private static final String PROVIDES_TYPE_STRING = RepositoryElasticsearchImplMetadata.class.getName();
+ 
+   private static final String PROVIDES_TYPE = MetadataIdentificationUtils.create(PROVIDES_TYPE_STRING);
+   
+   public static String createIdentifier(final JavaType javaType, final LogicalPath path) {
+      return PhysicalTypeIdentifierNamingUtils.createIdentifier(PROVIDES_TYPE_STRING, javaType, path);
+   }
+
+   public static JavaType getJavaType(final String metadataIdentificationString) {
+      return PhysicalTypeIdentifierNamingUtils.getJavaType(PROVIDES_TYPE_STRING, metadataIdentificationString);
+   }
+
+   public static String getMetadataIdentiferType() {
+      return PROVIDES_TYPE;
+   }
+
+   public static LogicalPath getPath(final String metadataIdentificationString) {
+      return PhysicalTypeIdentifierNamingUtils.getPath(PROVIDES_TYPE_STRING, metadataIdentificationString);
+   }
+
+   public static boolean isValid(final String metadataIdentificationString) {
+      return PhysicalTypeIdentifierNamingUtils.isValid(PROVIDES_TYPE_STRING, metadataIdentificationString);
+   }
+   
+   /**
+    * 
+    * @param identifier
+    * @param aspectName
+    * @param governorPhysicalTypeMetadata
+    * @param repositoryValues the values of the implemented repository annotation (required)
+    * @param entityValues the values of the repository domain type annotation (required)
+    */
+   protected RepositoryElasticsearchImplMetadata(String identifier, JavaType aspectName, 
+         PhysicalTypeMetadata governorPhysicalTypeMetadata,
+         final RepositoryElasticsearchAnnotationValues repositoryValues,
+         final ElasticsearchEntityAnnotationValues entityValues){
+      super(identifier, aspectName, governorPhysicalTypeMetadata);
+      
+      Validate.notNull(repositoryValues, "Repository annotation values required");
+      Validate.notNull(entityValues, "Entity annotation values required");
+      
+      // Members declared by user on the implementation win over generated ones.
+      final ClassOrInterfaceTypeDetailsBuilder members = RepositoryElasticsearchLayerSupport.getImplementationMembers(
+            getId(), repositoryValues.getDomainType(), entityValues, repositoryValues);
+      for (final FieldMetadataBuilder field : members.getDeclaredFields()) {
+         if (governorTypeDetails.getDeclaredField(field.getFieldName()) == null) {
+            builder.addField(field);
+         }
+      }
+      for (final MethodMetadataBuilder method : members.getDeclaredMethods()) {
+         if (!methodExists(method.getMethodName(), method.getParameterTypes())) {
+            builder.addMethod(method);
+         }
+      }
+      
+      // Build the ITD.
+      itdTypeDetails = builder.build();
+   }
+   
+   private boolean methodExists(final JavaSymbolName methodName, final List<AnnotatedJavaType> parameterTypes) {
+      for (final MethodMetadata method : governorTypeDetails.getDeclaredMethods()) {
+         if (method.getMethodName().equals(methodName) && method.getParameterTypes().equals(parameterTypes)) {
+            return true;
+         }
+      }
+      return false;
+   }
+   
+   @Override
+   public String toString() {
+       final ToStringBuilder builder = new ToStringBuilder(this);
+       builder.append("identifier", getId());
+       builder.append("valid", valid);
+       builder.append("aspectName", aspectName);
+       builder.append("destinationType", destination);
+       builder.append("governor", governorPhysicalTypeMetadata.getId());
+       builder.append("itdTypeDetails", itdTypeDetails);
+       return builder.toString();
+   }
+}
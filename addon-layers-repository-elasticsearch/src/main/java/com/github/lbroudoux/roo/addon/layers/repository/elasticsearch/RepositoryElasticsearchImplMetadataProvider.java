@@ -0,0 +1,160 @@
+/*
+ * Licensed to Laurent Broudoux (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.lbroudoux.roo.addon.layers.repository.elasticsearch;
+
+import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Service;
+import org.osgi.service.component.ComponentContext;
+import org.springframework.roo.classpath.PhysicalTypeIdentifier;
+import org.springframework.roo.classpath.PhysicalTypeMetadata;
+import org.springframework.roo.classpath.details.ClassOrInterfaceTypeDetails;
+import org.springframework.roo.classpath.details.DefaultPhysicalTypeMetadata;
+import org.springframework.roo.classpath.itd.AbstractItdMetadataProvider;
+import org.springframework.roo.classpath.itd.ItdTypeDetailsProvidingMetadataItem;
+import org.springframework.roo.metadata.MetadataNotificationListener;
+import org.springframework.roo.model.JavaType;
+import org.springframework.roo.project.LogicalPath;
+
+/**
+ * Provides {@link RepositoryElasticsearchImplMetadata}. This type is called by Roo to retrieve the metadata for this add-on.
+ * @author Laurent Broudoux
+ */
+@Component
+@Service
+public class RepositoryElasticsearchImplMetadataProvider extends AbstractItdMetadataProvider {
+
+   private final MetadataFingerprintCache fingerprintCache = new MetadataFingerprintCache();
+   
+   // Metadata of implementations that have been deleted or are no longer annotated has to be forgotten.
+   private final MetadataNotificationListener governorListener = new MetadataNotificationListener() {
+      public void notify(final String upstreamDependency, final String downstreamDependency) {
+         if (upstreamDependency == null || !PhysicalTypeIdentifier.isValid(upstreamDependency)) {
+            return;
+         }
+         final JavaType javaType = PhysicalTypeIdentifier.getJavaType(upstreamDependency);
+         final String implementationMid = createLocalIdentifier(javaType, PhysicalTypeIdentifier.getPath(upstreamDependency));
+         if (fingerprintCache.contains(implementationMid)) {
+            final ClassOrInterfaceTypeDetails implementation = typeLocationService.getTypeDetails(javaType);
+            if (implementation == null || implementation.getAnnotation(ElasticsearchJavaType.ROO_REPOSITORY_ELASTICSEARCH_IMPL) == null) {
+               fingerprintCache.remove(implementationMid);
+            }
+         }
+      }
+   };
+   
+   /**
+    * The activate method for this OSGi component, this will be called by the OSGi container upon bundle activation 
+    * (result of the 'addon install' command) 
+    * @param context the component context can be used to get access to the OSGi container (ie find out if certain bundles are active)
+    */
+   protected void activate(ComponentContext context) {
+      metadataDependencyRegistry.registerDependency(PhysicalTypeIdentifier.getMetadataIdentiferType(), getProvidesType());
+      metadataDependencyRegistry.addNotificationListener(governorListener);
+      addMetadataTrigger(ElasticsearchJavaType.ROO_REPOSITORY_ELASTICSEARCH_IMPL);
+   }
+   
+   /**
+    * The deactivate method for this OSGi component, this will be called by the OSGi container upon bundle deactivation 
+    * (result of the 'addon uninstall' command) 
+    * @param context the component context can be used to get access to the OSGi container (ie find out if certain bundles are active)
+    */
+   protected void deactivate(ComponentContext context) {
+      metadataDependencyRegistry.deregisterDependency(PhysicalTypeIdentifier.getMetadataIdentiferType(), getProvidesType());
+      metadataDependencyRegistry.removeNotificationListener(governorListener);
+      removeMetadataTrigger(ElasticsearchJavaType.ROO_REPOSITORY_ELASTICSEARCH_IMPL);
+      fingerprintCache.clear();
+   }
+   
+   @Override
+   protected ItdTypeDetailsProvidingMetadataItem getMetadata(
+         String metadataIdentificationString, JavaType aspectName,
+         PhysicalTypeMetadata governorPhysicalTypeMetadata, String itdFilename) {
+      
+      final RepositoryElasticsearchImplAnnotationValues annotationValues = new RepositoryElasticsearchImplAnnotationValues(governorPhysicalTypeMetadata);
+      
+      // Members of implementation depend on both the repository and its domain type settings.
+      final PhysicalTypeMetadata repositoryPhysicalTypeMetadata = getPhysicalTypeMetadata(metadataIdentificationString, annotationValues.getRepository());
+      if (repositoryPhysicalTypeMetadata == null) {
+         return null;
+      }
+      final RepositoryElasticsearchAnnotationValues repositoryValues = new RepositoryElasticsearchAnnotationValues(repositoryPhysicalTypeMetadata);
+      if (!repositoryValues.isAnnotationFound()) {
+         return null;
+      }
+      final PhysicalTypeMetadata entityPhysicalTypeMetadata = getPhysicalTypeMetadata(metadataIdentificationString, repositoryValues.getDomainType());
+      if (entityPhysicalTypeMetadata == null) {
+         return null;
+      }
+      final ElasticsearchEntityAnnotationValues entityValues = new ElasticsearchEntityAnnotationValues(entityPhysicalTypeMetadata);
+      if (!entityValues.isAnnotationFound()) {
+         return null;
+      }
+      
+      // Reuse previous metadata if neither the annotations nor the governors members have changed.
+      final String fingerprint = MetadataFingerprintCache.fingerprint(governorPhysicalTypeMetadata, ElasticsearchJavaType.ROO_REPOSITORY_ELASTICSEARCH_IMPL)
+            + MetadataFingerprintCache.fingerprint(repositoryPhysicalTypeMetadata, ElasticsearchJavaType.ROO_REPOSITORY_ELASTICSEARCH)
+            + MetadataFingerprintCache.fingerprint(entityPhysicalTypeMetadata, ElasticsearchJavaType.ROO_ELASTICSEARCH_ENTITY);
+      final ItdTypeDetailsProvidingMetadataItem previous = fingerprintCache.get(metadataIdentificationString, fingerprint);
+      if (previous != null) {
+         return previous;
+      }
+      return fingerprintCache.put(metadataIdentificationString, fingerprint, 
+            new RepositoryElasticsearchImplMetadata(metadataIdentificationString, aspectName, governorPhysicalTypeMetadata, 
+                  repositoryValues, entityValues));
+   }
+   
+   /**
+    * Get the physical type metadata of a type this implementation relies on, registering the dependency
+    * so that implementation metadata is rebuilt when this type changes.
+    * @param metadataIdentificationString the implementation metadata ID (required)
+    * @param javaType the type this implementation relies on (may be null)
+    * @return the physical type metadata or null if type cannot be found
+    */
+   private PhysicalTypeMetadata getPhysicalTypeMetadata(final String metadataIdentificationString, final JavaType javaType) {
+      final ClassOrInterfaceTypeDetails details = javaType == null ? null : typeLocationService.getTypeDetails(javaType);
+      if (details == null) {
+         return null;
+      }
+      metadataDependencyRegistry.registerDependency(details.getDeclaredByMetadataId(), metadataIdentificationString);
+      return new DefaultPhysicalTypeMetadata(details.getDeclaredByMetadataId(),
+            typeLocationService.getPhysicalTypeCanonicalPath(details.getDeclaredByMetadataId()), details);
+   }
+   
+   @Override
+   public String getItdUniquenessFilenameSuffix() {
+      return "Elasticsearch_Repository_Impl";
+   }
+
+   @Override
+   public String getProvidesType() {
+      return RepositoryElasticsearchImplMetadata.getMetadataIdentiferType();
+   }
+
+   @Override
+   protected String createLocalIdentifier(JavaType javaType, LogicalPath path) {
+      return RepositoryElasticsearchImplMetadata.createIdentifier(javaType, path);
+   }
+
+   @Override
+   protected String getGovernorPhysicalTypeIdentifier(String metadataIdentificationString) {
+      JavaType javaType = RepositoryElasticsearchImplMetadata.getJavaType(metadataIdentificationString);
+      LogicalPath path = RepositoryElasticsearchImplMetadata.getPath(metadataIdentificationString);
+      return PhysicalTypeIdentifier.createIdentifier(javaType, path);
+   }
+}
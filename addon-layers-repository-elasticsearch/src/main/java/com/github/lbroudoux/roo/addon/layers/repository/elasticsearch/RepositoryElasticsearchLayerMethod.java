@@ -18,6 +18,11 @@
  */
 package com.github.lbroudoux.roo.addon.layers.repository.elasticsearch;
 
+import static com.github.lbroudoux.roo.addon.layers.repository.elasticsearch.ElasticsearchCustomDataKeys.DELETE_ALL_METHOD;
+import static com.github.lbroudoux.roo.addon.layers.repository.elasticsearch.ElasticsearchCustomDataKeys.FIND_BY_IDS_METHOD;
+import static com.github.lbroudoux.roo.addon.layers.repository.elasticsearch.ElasticsearchCustomDataKeys.FIND_ENTRIES_AFTER_METHOD;
+import static com.github.lbroudoux.roo.addon.layers.repository.elasticsearch.ElasticsearchCustomDataKeys.FIND_ROUTED_METHOD;
+import static com.github.lbroudoux.roo.addon.layers.repository.elasticsearch.ElasticsearchCustomDataKeys.SAVE_ALL_METHOD;
 import static org.springframework.roo.classpath.customdata.CustomDataKeys.COUNT_ALL_METHOD;
 import static org.springframework.roo.classpath.customdata.CustomDataKeys.FIND_ALL_METHOD;
 import static org.springframework.roo.classpath.customdata.CustomDataKeys.FIND_ENTRIES_METHOD;
@@ -33,9 +38,9 @@ import java.util.List;
 
 import org.apache.commons.lang3.Validate;
 import org.springframework.roo.classpath.customdata.tagkeys.MethodMetadataCustomDataKey;
+import org.springframework.roo.classpath.details.ClassOrInterfaceTypeDetailsBuilder;
 import org.springframework.roo.classpath.layers.LayerType;
 import org.springframework.roo.classpath.layers.MethodParameter;
-import org.springframework.roo.model.DataType;
 import org.springframework.roo.model.JavaSymbolName;
 import org.springframework.roo.model.JavaType;
 
@@ -45,10 +50,22 @@ import org.springframework.roo.model.JavaType;
  */
 public enum RepositoryElasticsearchLayerMethod {
 
+   /**
+    * Counts entities through a count request that never materializes hits,
+    * optionally cached for a short time.
+    */
    COUNT("count", COUNT_ALL_METHOD) {
       @Override
-      public String getCall(List<MethodParameter> parameters, String repositoryFieldName) {
-         return "count()";
+      public String getCall(List<MethodParameter> parameters, String repositoryFieldName, JavaType entityType) {
+         return RepositoryElasticsearchLayerSupport.getCountMethodName(entityType) + "()";
+      }
+      @Override
+      public void addSupportMembers(final ClassOrInterfaceTypeDetailsBuilder cidBuilder, final JavaType entityType,
+            final ElasticsearchEntityAnnotationValues entityValues, final RepositoryElasticsearchAnnotationValues repositoryValues) {
+         RepositoryElasticsearchLayerSupport.addCountMethod(cidBuilder, entityType, entityValues, repositoryValues.getCountCacheSeconds());
+         if (repositoryValues.isAsync()) {
+            RepositoryElasticsearchLayerSupport.addCountAsyncMethod(cidBuilder, entityType, entityValues);
+         }
       }
       @Override
       public List<JavaSymbolName> getParameterNames(JavaType entityType, JavaType idType) {
@@ -66,8 +83,16 @@ public enum RepositoryElasticsearchLayerMethod {
    },
    DELETE("delete", REMOVE_METHOD) {
       @Override
-      public String getCall(List<MethodParameter> parameters, String repositoryFieldName) {
-         return "delete(" + parameters.get(0).getValue() + ")";
+      public String getCall(List<MethodParameter> parameters, String repositoryFieldName, JavaType entityType) {
+         return RepositoryElasticsearchLayerSupport.getDeleteMethodName(entityType) + "(" + parameters.get(0).getValue() + ")";
+      }
+      @Override
+      public void addSupportMembers(final ClassOrInterfaceTypeDetailsBuilder cidBuilder, final JavaType entityType,
+            final ElasticsearchEntityAnnotationValues entityValues, final RepositoryElasticsearchAnnotationValues repositoryValues) {
+         RepositoryElasticsearchLayerSupport.addDeleteMethod(cidBuilder, entityType, entityValues, repositoryValues);
+         if (repositoryValues.isAsync()) {
+            RepositoryElasticsearchLayerSupport.addDeleteAsyncMethod(cidBuilder, entityType, entityValues, repositoryValues);
+         }
       }
       @Override
       public List<JavaSymbolName> getParameterNames(JavaType entityType, JavaType idType) {
@@ -82,10 +107,44 @@ public enum RepositoryElasticsearchLayerMethod {
          return JavaType.VOID_PRIMITIVE;
       }
    },
+   /**
+    * Deletes many entities at once through chunked bulk requests.
+    */
+   DELETE_ALL("deleteAll", DELETE_ALL_METHOD) {
+      @Override
+      public String getCall(final List<MethodParameter> parameters, String repositoryFieldName, JavaType entityType) {
+         return RepositoryElasticsearchLayerSupport.getBulkDeleteMethodName(entityType) + "(" + parameters.get(0).getValue() + ")";
+      }
+      @Override
+      public void addSupportMembers(final ClassOrInterfaceTypeDetailsBuilder cidBuilder, final JavaType entityType,
+            final ElasticsearchEntityAnnotationValues entityValues, final RepositoryElasticsearchAnnotationValues repositoryValues) {
+         RepositoryElasticsearchLayerSupport.addBulkDeleteMethod(cidBuilder, entityType, entityValues, repositoryValues);
+      }
+      @Override
+      public List<JavaSymbolName> getParameterNames(final JavaType entityType, final JavaType idType) {
+         return Arrays.asList(new JavaSymbolName("entities"));
+      }
+      @Override
+      protected List<JavaType> getParameterTypes(final JavaType targetEntity, final JavaType idType) {
+         return Arrays.asList(RepositoryElasticsearchLayerSupport.getIterableOf(targetEntity));
+      }
+      @Override
+      public JavaType getReturnType(final JavaType entityType) {
+         return JavaType.VOID_PRIMITIVE;
+      }
+   },
    FIND("find", FIND_METHOD) {
       @Override
-      public String getCall(final List<MethodParameter> parameters, String repositoryFieldName) {
-         return "findOne(" + parameters.get(0).getValue() + ")";
+      public String getCall(final List<MethodParameter> parameters, String repositoryFieldName, JavaType entityType) {
+         return RepositoryElasticsearchLayerSupport.getGetMethodName(entityType) + "(" + parameters.get(0).getValue() + ")";
+      }
+      @Override
+      public void addSupportMembers(final ClassOrInterfaceTypeDetailsBuilder cidBuilder, final JavaType entityType,
+            final ElasticsearchEntityAnnotationValues entityValues, final RepositoryElasticsearchAnnotationValues repositoryValues) {
+         RepositoryElasticsearchLayerSupport.addGetMethod(cidBuilder, entityType, entityValues, repositoryValues);
+         if (repositoryValues.isAsync()) {
+            RepositoryElasticsearchLayerSupport.addGetAsyncMethod(cidBuilder, entityType, entityValues);
+         }
       }
       @Override
       public List<JavaSymbolName> getParameterNames(final JavaType entityType, final JavaType idType) {
@@ -100,12 +159,25 @@ public enum RepositoryElasticsearchLayerMethod {
          return entityType;
       }
    },
+   /**
+    * Finds all entities. Rather than asking for a single page as large as the index,
+    * this scrolls over the index in fixed-size batches. Callers expect a list, so entities
+    * are collected into one ; a lazy iterable and closeable streaming variants are added 
+    * along for callers that need flat memory or may stop early, and so are the finders 
+    * declared on the repository.
+    */
    FIND_ALL("findAll", FIND_ALL_METHOD) {
       @Override
-      public String getCall(final List<MethodParameter> parameters, String repositoryFieldName) {
-         //return "findAll()";
-         return "findAll(new org.springframework.data.domain.PageRequest("
-            + "0, Math.max(1, (int)" + repositoryFieldName + ".count()))).getContent()";
+      public String getCall(final List<MethodParameter> parameters, String repositoryFieldName, JavaType entityType) {
+         return RepositoryElasticsearchLayerSupport.getListAllMethodName(entityType) + "()";
+      }
+      @Override
+      public void addSupportMembers(final ClassOrInterfaceTypeDetailsBuilder cidBuilder, final JavaType entityType,
+            final ElasticsearchEntityAnnotationValues entityValues, final RepositoryElasticsearchAnnotationValues repositoryValues) {
+         RepositoryElasticsearchLayerSupport.addScrollAllMethod(cidBuilder, entityType, entityValues);
+         for (ElasticsearchFinder finder : repositoryValues.getFinders()) {
+            RepositoryElasticsearchLayerSupport.addFinderMethod(cidBuilder, entityType, entityValues, repositoryValues, finder);
+         }
       }
       @Override
       public List<JavaSymbolName> getParameterNames(final JavaType entityType, final JavaType idType) {
@@ -117,23 +189,54 @@ public enum RepositoryElasticsearchLayerMethod {
       }
       @Override
       public JavaType getReturnType(final JavaType entityType) {
-         return new JavaType(Iterable.class.getName(), 0, DataType.TYPE, null, Arrays.asList(entityType));
+         return JavaType.listOf(entityType);
+      }
+   },
+   /**
+    * Finds many entities by id at once, saving one round trip per entity.
+    */
+   FIND_BY_IDS("findByIds", FIND_BY_IDS_METHOD) {
+      @Override
+      public String getCall(final List<MethodParameter> parameters, String repositoryFieldName, JavaType entityType) {
+         return RepositoryElasticsearchLayerSupport.getMultiGetMethodName(entityType) + "(" + parameters.get(0).getValue() + ")";
+      }
+      @Override
+      public void addSupportMembers(final ClassOrInterfaceTypeDetailsBuilder cidBuilder, final JavaType entityType,
+            final ElasticsearchEntityAnnotationValues entityValues, final RepositoryElasticsearchAnnotationValues repositoryValues) {
+         RepositoryElasticsearchLayerSupport.addMultiGetMethod(cidBuilder, entityType, entityValues);
+      }
+      @Override
+      public List<JavaSymbolName> getParameterNames(final JavaType entityType, final JavaType idType) {
+         return Arrays.asList(new JavaSymbolName("ids"));
+      }
+      @Override
+      protected List<JavaType> getParameterTypes(final JavaType targetEntity, final JavaType idType) {
+         return Arrays.asList(RepositoryElasticsearchLayerSupport.getIterableOf(idType));
+      }
+      @Override
+      public JavaType getReturnType(final JavaType entityType) {
+         return JavaType.listOf(entityType);
       }
    },
    /**
     * Finds entities starting from a given zero-based index, up to a given
-    * maximum number of results. This method isn't directly implemented by
-    * Spring Data JPA, so we use its findAll(Pageable) API.
+    * maximum number of results. Spring Data pages cannot express an arbitrary 
+    * offset, so we search the exact window from the repository implementation. Projection variants 
+    * declared on the repository are added along.
     */
    FIND_ENTRIES("findEntries", FIND_ENTRIES_METHOD) {
       @Override
-      public String getCall(final List<MethodParameter> parameters, String repositoryFieldName) {
-          final JavaSymbolName firstResultParameter = parameters.get(0).getValue();
-          final JavaSymbolName maxResultsParameter = parameters.get(1).getValue();
-          final String pageNumberExpression = firstResultParameter + " / " + maxResultsParameter;
-          return "findAll(new org.springframework.data.domain.PageRequest("
-                  + pageNumberExpression + ", " + maxResultsParameter
-                  + ")).getContent()";
+      public String getCall(final List<MethodParameter> parameters, String repositoryFieldName, JavaType entityType) {
+         return RepositoryElasticsearchLayerSupport.getSearchEntriesMethodName(entityType) + "(" 
+               + parameters.get(0).getValue() + ", " + parameters.get(1).getValue() + ")";
+      }
+      @Override
+      public void addSupportMembers(final ClassOrInterfaceTypeDetailsBuilder cidBuilder, final JavaType entityType,
+            final ElasticsearchEntityAnnotationValues entityValues, final RepositoryElasticsearchAnnotationValues repositoryValues) {
+         RepositoryElasticsearchLayerSupport.addSearchEntriesMethod(cidBuilder, entityType, entityValues);
+         for (ElasticsearchProjection projection : repositoryValues.getProjections()) {
+            RepositoryElasticsearchLayerSupport.addSearchProjectionEntriesMethod(cidBuilder, entityType, entityValues, projection);
+         }
       }
       @Override
       public List<JavaSymbolName> getParameterNames(final JavaType entityType, final JavaType idType) {
@@ -149,13 +252,84 @@ public enum RepositoryElasticsearchLayerMethod {
       }
    },
    /**
-    * Spring Data JPA makes no distinction between
-    * create/persist/save/update/merge
+    * Finds up to a given maximum number of entities coming after the one with given id 
+    * (or from the start if <code>null</code>). This cursor based paging costs the same
+    * for late pages as for the first one, unlike offset based {@link #FIND_ENTRIES}.
+    * The cursor is compared to Elasticsearch document ids, that are always strings.
+    */
+   FIND_ENTRIES_AFTER("findEntriesAfter", FIND_ENTRIES_AFTER_METHOD) {
+      @Override
+      public String getCall(final List<MethodParameter> parameters, String repositoryFieldName, JavaType entityType) {
+         return RepositoryElasticsearchLayerSupport.getSearchEntriesAfterMethodName(entityType) + "(" 
+               + parameters.get(0).getValue() + ", " + parameters.get(1).getValue() + ")";
+      }
+      @Override
+      public void addSupportMembers(final ClassOrInterfaceTypeDetailsBuilder cidBuilder, final JavaType entityType,
+            final ElasticsearchEntityAnnotationValues entityValues, final RepositoryElasticsearchAnnotationValues repositoryValues) {
+         RepositoryElasticsearchLayerSupport.addSearchEntriesAfterMethod(cidBuilder, entityType, entityValues);
+      }
+      @Override
+      public List<JavaSymbolName> getParameterNames(final JavaType entityType, final JavaType idType) {
+         return Arrays.asList(new JavaSymbolName("lastId"), new JavaSymbolName("maxResults"));
+      }
+      @Override
+      protected List<JavaType> getParameterTypes(final JavaType targetEntity, final JavaType idType) {
+         return Arrays.asList(JavaType.STRING, JavaType.INT_PRIMITIVE);
+      }
+      @Override
+      public JavaType getReturnType(final JavaType entityType) {
+         return JavaType.listOf(entityType);
+      }
+   },
+   /**
+    * Finds an entity by id using its routing value so that only one shard is involved.
+    */
+   FIND_ROUTED("findRouted", FIND_ROUTED_METHOD) {
+      @Override
+      public boolean isAvailable(final ElasticsearchEntityAnnotationValues entityValues) {
+         return entityValues.isRouted();
+      }
+      @Override
+      public String getCall(final List<MethodParameter> parameters, String repositoryFieldName, JavaType entityType) {
+         return RepositoryElasticsearchLayerSupport.getGetMethodName(entityType) + "(" 
+               + parameters.get(0).getValue() + ", " + parameters.get(1).getValue() + ")";
+      }
+      @Override
+      public void addSupportMembers(final ClassOrInterfaceTypeDetailsBuilder cidBuilder, final JavaType entityType,
+            final ElasticsearchEntityAnnotationValues entityValues, final RepositoryElasticsearchAnnotationValues repositoryValues) {
+         RepositoryElasticsearchLayerSupport.addGetRoutedMethod(cidBuilder, entityType, entityValues, true);
+      }
+      @Override
+      public List<JavaSymbolName> getParameterNames(final JavaType entityType, final JavaType idType) {
+         return Arrays.asList(new JavaSymbolName("id"), new JavaSymbolName("routing"));
+      }
+      @Override
+      protected List<JavaType> getParameterTypes(final JavaType entityType, final JavaType idType) {
+         return Arrays.asList(idType, JavaType.STRING);
+      }
+      @Override
+      public JavaType getReturnType(final JavaType entityType) {
+         return entityType;
+      }
+   },
+   /**
+    * Spring Data makes no distinction between create/persist/save/update/merge.
+    * We index through the repository implementation so that refresh follows the entity refresh mode 
+    * instead of happening on every write.
     */
    SAVE("save", MERGE_METHOD, PERSIST_METHOD) {
       @Override
-      public String getCall(final List<MethodParameter> parameters, String repositoryFieldName) {
-         return "save(" + parameters.get(0).getValue() + ")";
+      public String getCall(final List<MethodParameter> parameters, String repositoryFieldName, JavaType entityType) {
+         return RepositoryElasticsearchLayerSupport.getIndexMethodName(entityType) + "(" + parameters.get(0).getValue() + ")";
+      }
+      @Override
+      public void addSupportMembers(final ClassOrInterfaceTypeDetailsBuilder cidBuilder, final JavaType entityType,
+            final ElasticsearchEntityAnnotationValues entityValues, final RepositoryElasticsearchAnnotationValues repositoryValues) {
+         RepositoryElasticsearchLayerSupport.addIndexMethod(cidBuilder, entityType, entityValues, repositoryValues);
+         RepositoryElasticsearchLayerSupport.addUpdateMethods(cidBuilder, entityType, entityValues, repositoryValues);
+         if (repositoryValues.isAsync()) {
+            RepositoryElasticsearchLayerSupport.addIndexAsyncMethod(cidBuilder, entityType, entityValues, repositoryValues);
+         }
       }
       @Override
       public List<JavaSymbolName> getParameterNames(final JavaType entityType, final JavaType idType) {
@@ -169,6 +343,32 @@ public enum RepositoryElasticsearchLayerMethod {
       public JavaType getReturnType(final JavaType entityType) {
          return JavaType.VOID_PRIMITIVE;
       }
+   },
+   /**
+    * Saves many entities at once through chunked bulk requests.
+    */
+   SAVE_ALL("saveAll", SAVE_ALL_METHOD) {
+      @Override
+      public String getCall(final List<MethodParameter> parameters, String repositoryFieldName, JavaType entityType) {
+         return RepositoryElasticsearchLayerSupport.getBulkIndexMethodName(entityType) + "(" + parameters.get(0).getValue() + ")";
+      }
+      @Override
+      public void addSupportMembers(final ClassOrInterfaceTypeDetailsBuilder cidBuilder, final JavaType entityType,
+            final ElasticsearchEntityAnnotationValues entityValues, final RepositoryElasticsearchAnnotationValues repositoryValues) {
+         RepositoryElasticsearchLayerSupport.addBulkIndexMethod(cidBuilder, entityType, entityValues, repositoryValues);
+      }
+      @Override
+      public List<JavaSymbolName> getParameterNames(final JavaType entityType, final JavaType idType) {
+         return Arrays.asList(new JavaSymbolName("entities"));
+      }
+      @Override
+      protected List<JavaType> getParameterTypes(final JavaType targetEntity, final JavaType idType) {
+         return Arrays.asList(RepositoryElasticsearchLayerSupport.getIterableOf(targetEntity));
+      }
+      @Override
+      public JavaType getReturnType(final JavaType entityType) {
+         return JavaType.VOID_PRIMITIVE;
+      }
    };
    
    
@@ -217,14 +417,48 @@ public enum RepositoryElasticsearchLayerMethod {
       return name;
    }
    
+   /**
+    * Returns the repository role serving this method: save and delete methods 
+    * are writes, all other methods are reads.
+    * @return {@link RepositoryRole#WRITE} or {@link RepositoryRole#READ}
+    */
+   public RepositoryRole getRole(){
+      if (this == SAVE || this == SAVE_ALL || this == DELETE || this == DELETE_ALL) {
+         return RepositoryRole.WRITE;
+      }
+      return RepositoryRole.READ;
+   }
+   
    /**
     * Returns a Java snippet that invokes this method (minus the target)
     * @param parameters the parameters used by the caller; can be
     * <code>null</code>
     * @param repositoryFieldName The name of the repository within aspect
+    * @param entityType the type of entity being managed
     * @return a non-blank Java snippet
     */
-   public abstract String getCall(List<MethodParameter> parameters, String repositoryFieldName);
+   public abstract String getCall(List<MethodParameter> parameters, String repositoryFieldName, JavaType entityType);
+
+   /**
+    * Tell if this method can be offered for the given entity.
+    * @param entityValues the values of the entity {@link RooElasticsearchEntity} annotation
+    * @return true if repositories of this entity serve this method
+    */
+   public boolean isAvailable(final ElasticsearchEntityAnnotationValues entityValues) {
+      return true;
+   }
+
+   /**
+    * Adds to repository implementation the members this method call relies on, if any.
+    * @param cidBuilder the builder holding the repository implementation members (required)
+    * @param entityType the type of entity being managed
+    * @param entityValues the values of the entity {@link RooElasticsearchEntity} annotation
+    * @param repositoryValues the values of the {@link RooElasticsearchRepository} annotation
+    */
+   public void addSupportMembers(final ClassOrInterfaceTypeDetailsBuilder cidBuilder, final JavaType entityType,
+         final ElasticsearchEntityAnnotationValues entityValues, final RepositoryElasticsearchAnnotationValues repositoryValues) {
+      // Most methods are served by Spring Data.
+   }
 
    /**
     * Returns the names of this method's declared parameters
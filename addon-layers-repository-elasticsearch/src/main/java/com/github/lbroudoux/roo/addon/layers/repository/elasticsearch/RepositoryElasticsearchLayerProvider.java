@@ -29,8 +29,10 @@ import org.apache.commons.lang3.Validate;
 import org.apache.felix.scr.annotations.Component;
 import org.apache.felix.scr.annotations.Reference;
 import org.apache.felix.scr.annotations.Service;
+import org.springframework.roo.classpath.TypeLocationService;
 import org.springframework.roo.classpath.details.ClassOrInterfaceTypeDetails;
 import org.springframework.roo.classpath.details.ClassOrInterfaceTypeDetailsBuilder;
+import org.springframework.roo.classpath.details.DefaultPhysicalTypeMetadata;
 import org.springframework.roo.classpath.details.FieldMetadataBuilder;
 import org.springframework.roo.classpath.details.annotations.AnnotationMetadataBuilder;
 import org.springframework.roo.classpath.layers.CoreLayerProvider;
@@ -52,6 +54,8 @@ public class RepositoryElasticsearchLayerProvider extends CoreLayerProvider {
 
    @Reference 
    private RepositoryElasticsearchLocator repositoryLocator;
+   @Reference
+   private TypeLocationService typeLocationService;
 
    @Override
    public int getLayerPosition() {
@@ -82,23 +86,65 @@ public class RepositoryElasticsearchLayerProvider extends CoreLayerProvider {
          return null;
       }
       
-      // Use the first such repository (could refine this later).
-      final ClassOrInterfaceTypeDetails repository = repositories.iterator().next();
+      // Pick the repository serving this method role.
+      final ClassOrInterfaceTypeDetails repository = selectRepository(repositories, method.getRole());
+      
+      // Repositories created before custom implementations were generated do not declare these methods yet.
+      final ClassOrInterfaceTypeDetails implementation = typeLocationService.getTypeDetails(new JavaType(
+            repository.getName().getFullyQualifiedTypeName() + RooElasticsearchRepositoryImpl.IMPLEMENTATION_SUFFIX));
+      if (implementation == null || implementation.getAnnotation(ElasticsearchJavaType.ROO_REPOSITORY_ELASTICSEARCH_IMPL) == null) {
+         return null;
+      }
+      
+      // Some methods are only served for entities with specific settings (eg: routing).
+      final ClassOrInterfaceTypeDetails entity = typeLocationService.getTypeDetails(targetEntity);
+      if (entity == null || !method.isAvailable(new ElasticsearchEntityAnnotationValues(new DefaultPhysicalTypeMetadata(
+            entity.getDeclaredByMetadataId(), typeLocationService.getPhysicalTypeCanonicalPath(entity.getDeclaredByMetadataId()), entity)))) {
+         return null;
+      }
       
       // Return the additions the caller needs to make.
-      return getMethodAdditions(callerMID, method, repository.getName(), Arrays.asList(methodParameters));
+      return getMethodAdditions(callerMID, method, repository.getName(), targetEntity, Arrays.asList(methodParameters));
+   }
+   
+   /**
+    * Select the repository serving the given role among those of a domain type. A repository declaring 
+    * this role is preferred, then a {@link RepositoryRole#DEFAULT} one, then any other. Ties are broken 
+    * on fully qualified name so that the selection does not depend on scan order.
+    * @param repositories the candidate repositories (required, not empty)
+    * @param role the role of method being called
+    * @return the selected repository
+    */
+   private ClassOrInterfaceTypeDetails selectRepository(final Collection<ClassOrInterfaceTypeDetails> repositories,
+         final RepositoryRole role) {
+      ClassOrInterfaceTypeDetails selected = null;
+      int selectedRank = Integer.MAX_VALUE;
+      for (final ClassOrInterfaceTypeDetails repository : repositories) {
+         final RepositoryRole repositoryRole = repositoryLocator.getRole(repository);
+         final int rank = repositoryRole == role ? 0 : (repositoryRole == RepositoryRole.DEFAULT ? 1 : 2);
+         if (selected == null || rank < selectedRank || (rank == selectedRank 
+               && repository.getName().getFullyQualifiedTypeName().compareTo(
+                     selected.getName().getFullyQualifiedTypeName()) < 0)) {
+            selected = repository;
+            selectedRank = rank;
+         }
+      }
+      return selected;
    }
    
    /**
-    * Returns the additions that the caller needs to make in order to invoke the given method.
+    * Returns the additions that the caller needs to make in order to invoke the given method. Methods 
+    * Spring Data does not provide are served by the repository custom implementation and declared on
+    * the repository interface, so that every call goes through the repository.
     * @param callerMID the caller's metadata ID (required)
     * @param method the method being called (required)
     * @param repositoryType the type of repository being called
+    * @param targetEntity the type of entity being managed
     * @param parameterNames the parameter names used by the caller
     * @return a non-<code>null</code> set of additions
     */
    private MemberTypeAdditions getMethodAdditions(final String callerMID, final RepositoryElasticsearchLayerMethod method, 
-         final JavaType repositoryType, final List<MethodParameter> parameters) {
+         final JavaType repositoryType, final JavaType targetEntity, final List<MethodParameter> parameters) {
       // Create a builder to hold the repository field to be copied into the caller.
       final ClassOrInterfaceTypeDetailsBuilder cidBuilder = new ClassOrInterfaceTypeDetailsBuilder(callerMID);
       final AnnotationMetadataBuilder autowiredAnnotation = new AnnotationMetadataBuilder(AUTOWIRED);
@@ -108,7 +154,7 @@ public class RepositoryElasticsearchLayerProvider extends CoreLayerProvider {
               repositoryFieldName), repositoryType));
 
       // Create the additions to invoke the given method on this field
-      final String methodCall = repositoryFieldName + "." + method.getCall(parameters, repositoryFieldName);
+      final String methodCall = repositoryFieldName + "." + method.getCall(parameters, repositoryFieldName, targetEntity);
       return new MemberTypeAdditions(cidBuilder, method.getName(),
               methodCall, false, parameters);
    }
@@ -0,0 +1,2377 @@
+/*
+ * Licensed to Laurent Broudoux (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.lbroudoux.roo.addon.layers.repository.elasticsearch;
+
+import static org.springframework.roo.model.SpringJavaType.AUTOWIRED;
+
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.roo.classpath.details.ClassOrInterfaceTypeDetailsBuilder;
+import org.springframework.roo.classpath.details.FieldMetadataBuilder;
+import org.springframework.roo.classpath.details.MethodMetadataBuilder;
+import org.springframework.roo.classpath.details.annotations.AnnotatedJavaType;
+import org.springframework.roo.classpath.details.annotations.AnnotationMetadataBuilder;
+import org.springframework.roo.classpath.itd.InvocableMemberBodyBuilder;
+import org.springframework.roo.model.DataType;
+import org.springframework.roo.model.JavaSymbolName;
+import org.springframework.roo.model.JavaType;
+import org.springframework.roo.support.logging.HandlerUtils;
+
+/**
+ * Builds the members {@link RepositoryElasticsearchLayerMethod}s are served by within the custom
+ * implementation of repositories, because Spring Data repositories do not expose the Elasticsearch
+ * features they rely on (scan/scroll, bulk, multi-get, ...). Public members are also declared on
+ * the repository interface, so that callers reach them through the repository.
+ * @author Laurent Broudoux
+ */
+public final class RepositoryElasticsearchLayerSupport {
+
+   private static final Logger LOGGER = HandlerUtils.getLogger(RepositoryElasticsearchLayerSupport.class);
+
+   /** The name of the Elasticsearch client field injected into repository implementation. */
+   public static final String CLIENT_FIELD_NAME = "elasticsearchClient";
+
+   /** Number of documents fetched per scroll round trip. */
+   public static final int SCROLL_BATCH_SIZE = 500;
+
+   /** How long a scroll context is kept alive between two batches. */
+   public static final String SCROLL_KEEP_ALIVE = "org.elasticsearch.common.unit.TimeValue.timeValueMinutes(1)";
+
+   private static final JavaType CLIENT = new JavaType("org.elasticsearch.client.Client");
+
+   private static final String DOCUMENT = "org.springframework.data.elasticsearch.annotations.Document";
+
+   private static final String OBJECT_MAPPER = "com.fasterxml.jackson.databind.ObjectMapper";
+
+   private static final String MAPPER_FIELD_NAME = "elasticsearchMapper";
+
+   private static final JavaType SEARCH_HIT = new JavaType("org.elasticsearch.search.SearchHit");
+
+   private static final JavaType SEARCH_HITS = new JavaType("org.elasticsearch.search.SearchHits");
+
+   private static final JavaType VOID = new JavaType("java.lang.Void");
+
+   private static final JavaType ATOMIC_LONG = new JavaType("java.util.concurrent.atomic.AtomicLong");
+
+   private static final String CACHE_GET_KEY_PREFIX = "get:";
+
+   private static final String ELASTICSEARCH_EXCEPTION = "org.elasticsearch.ElasticSearchException";
+
+   private static final String VERSION_CONFLICT = "org.elasticsearch.index.engine.VersionConflictEngineException";
+
+   private static final String OPTIMISTIC_LOCKING_FAILURE = "org.springframework.dao.OptimisticLockingFailureException";
+
+   private static final JavaType DATE = new JavaType("java.util.Date");
+
+   private static final JavaType CALENDAR = new JavaType("java.util.Calendar");
+
+   private static final JavaType QUERY_BUILDER = new JavaType("org.elasticsearch.index.query.QueryBuilder");
+
+   private static final String CLOSEABLE_ITERATOR = CloseableIterator.class.getName();
+
+   private static final String ADAPTER_ACTION_FUTURE = "org.elasticsearch.action.support.AdapterActionFuture";
+
+   private static final String GET_RESPONSE = "org.elasticsearch.action.get.GetResponse";
+
+   private static final String SEARCH_RESPONSE = "org.elasticsearch.action.search.SearchResponse";
+
+   private static final String INDEX_RESPONSE = "org.elasticsearch.action.index.IndexResponse";
+
+   private static final String DELETE_RESPONSE = "org.elasticsearch.action.delete.DeleteResponse";
+
+   private static final String COUNT_RESPONSE = "org.elasticsearch.action.count.CountResponse";
+
+   /** Number of times a partial update is retried when document is concurrently modified. */
+   public static final int UPDATE_RETRIES_ON_CONFLICT = 3;
+
+   /** 
+    * Merges partial fields into document source, turning the update into a no-op if none of them changes
+    * so that neither a new document version nor a reindex is produced.
+    */
+   private static final String MERGE_SCRIPT = "changed = false; for (field : partial.keySet()) { "
+         + "if (ctx._source[field] != partial[field]) { ctx._source[field] = partial[field]; changed = true; } } "
+         + "if (!changed) { ctx.op = 'none'; }";
+
+   /** Maximum number of documents fetched by a single multi-get request. */
+   public static final int MULTI_GET_CHUNK_SIZE = 1000;
+
+   /** Default maximum number of actions within a bulk request. */
+   public static final int BULK_ACTIONS = 1000;
+
+   /** Default maximum size of a bulk request, in bytes. */
+   public static final long BULK_BYTES = 5 * 1024 * 1024;
+
+   private static final JavaType VALUE = new JavaType("org.springframework.beans.factory.annotation.Value");
+
+   private static final JavaType BULK_REQUEST_BUILDER = new JavaType("org.elasticsearch.action.bulk.BulkRequestBuilder");
+
+   private static final String BULK_ACTIONS_FIELD_NAME = "elasticsearchBulkActions";
+
+   private static final String BULK_BYTES_FIELD_NAME = "elasticsearchBulkBytes";
+
+   private static final String EXECUTE_BULK_METHOD_NAME = "executeElasticsearchBulk";
+
+   private static final String UPDATE_REFRESH_INTERVAL_METHOD_NAME = "updateElasticsearchRefreshInterval";
+
+   /** 
+    * The internal unique id (type#id) is the only unique key cursors can be sorted on, as neither search_after nor 
+    * doc values are available : sorting on it loads its field data, so that offset based searches do not sort.
+    */
+   private static final String UID_FIELD = "_uid";
+   private static final String PROJECTION_FIELD = "projection";
+
+   private RepositoryElasticsearchLayerSupport() {
+      // Utility class.
+   }
+
+   /**
+    * Returns the name of the support method that scrolls over all entities of given type.
+    * @param entityType the type of entity being managed (required)
+    * @return a non-blank method name
+    */
+   public static String getScrollAllMethodName(final JavaType entityType) {
+      return "scrollAll" + entityType.getSimpleTypeName();
+   }
+
+   /**
+    * Returns the name of the support method that counts entities of given type.
+    * @param entityType the type of entity being managed (required)
+    * @return a non-blank method name
+    */
+   public static String getCountMethodName(final JavaType entityType) {
+      return "count" + entityType.getSimpleTypeName() + "Documents";
+   }
+
+   /**
+    * Returns the name of the support method that gets many entities of given type at once.
+    * @param entityType the type of entity being managed (required)
+    * @return a non-blank method name
+    */
+   public static String getMultiGetMethodName(final JavaType entityType) {
+      return "multiGet" + entityType.getSimpleTypeName();
+   }
+
+   /**
+    * Returns the name of the support method that maps a search hit to an entity of given type.
+    * @param entityType the type of entity being managed (required)
+    * @return a non-blank method name
+    */
+   public static String getMapHitMethodName(final JavaType entityType) {
+      return "map" + entityType.getSimpleTypeName();
+   }
+
+   /**
+    * Returns the name of the support method that maps search hits to a list of entities of given type.
+    * @param entityType the type of entity being managed (required)
+    * @return a non-blank method name
+    */
+   public static String getMapHitsMethodName(final JavaType entityType) {
+      return "map" + entityType.getSimpleTypeName() + "Hits";
+   }
+
+   /**
+    * Returns the name of the finder that searches given projection of entities by offset.
+    * @param entityType the type of entity being managed (required)
+    * @param projection the projection to fetch (required)
+    * @return a non-blank method name
+    */
+   public static String getSearchProjectionEntriesMethodName(final JavaType entityType, final ElasticsearchProjection projection) {
+      return "find" + entityType.getSimpleTypeName() + "Entries" + StringUtils.capitalize(projection.getName());
+   }
+
+   /**
+    * Returns the name of the support method that searches entities of given type by offset.
+    * @param entityType the type of entity being managed (required)
+    * @return a non-blank method name
+    */
+   public static String getSearchEntriesMethodName(final JavaType entityType) {
+      return "search" + entityType.getSimpleTypeName() + "Entries";
+   }
+
+   /**
+    * Returns the name of the support method that searches entities of given type after a cursor.
+    * @param entityType the type of entity being managed (required)
+    * @return a non-blank method name
+    */
+   public static String getSearchEntriesAfterMethodName(final JavaType entityType) {
+      return "search" + entityType.getSimpleTypeName() + "EntriesAfter";
+   }
+
+   /**
+    * Adds the Elasticsearch client field to repository implementation.
+    * @param cidBuilder the builder holding the repository implementation members (required)
+    */
+   public static void addClientField(final ClassOrInterfaceTypeDetailsBuilder cidBuilder) {
+      cidBuilder.addField(new FieldMetadataBuilder(cidBuilder.getDeclaredByMetadataId(), 0,
+            Arrays.asList(new AnnotationMetadataBuilder(AUTOWIRED)), new JavaSymbolName(CLIENT_FIELD_NAME), CLIENT));
+   }
+
+   /**
+    * Adds the JSON mapper field used for reading documents source to repository implementation.
+    * @param cidBuilder the builder holding the repository implementation members (required)
+    */
+   public static void addMapperField(final ClassOrInterfaceTypeDetailsBuilder cidBuilder) {
+      final FieldMetadataBuilder fieldBuilder = new FieldMetadataBuilder(cidBuilder.getDeclaredByMetadataId(),
+            Modifier.PRIVATE | Modifier.FINAL, new JavaSymbolName(MAPPER_FIELD_NAME), new JavaType(OBJECT_MAPPER), 
+            "new " + OBJECT_MAPPER + "()");
+      cidBuilder.addField(fieldBuilder);
+   }
+
+   /**
+    * Adds to repository implementation methods mapping a search hit - or a bunch of search hits - to entities. Identifier is
+    * taken from the hit as it is not part of the source when generated by Elasticsearch. So is the version of
+    * versioned entities, provided that the search asked for it (see {@link #getVersionFlag}).
+    * @param cidBuilder the builder holding the repository implementation members (required)
+    * @param entityType the type of entity being managed (required)
+    * @param entityValues the values of the entity annotation (required)
+    */
+   public static void addMapHitMethod(final ClassOrInterfaceTypeDetailsBuilder cidBuilder, final JavaType entityType,
+         final ElasticsearchEntityAnnotationValues entityValues) {
+      addMapperField(cidBuilder);
+
+      final String entity = entityType.getFullyQualifiedTypeName();
+      InvocableMemberBodyBuilder bodyBuilder = new InvocableMemberBodyBuilder();
+      bodyBuilder.appendFormalLine("try {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("final " + entity + " entity = " + MAPPER_FIELD_NAME + ".readValue(hit.sourceAsString(), " + entity + ".class);");
+      bodyBuilder.appendFormalLine("entity.setId(hit.getId());");
+      if (entityValues.isVersioned()) {
+         bodyBuilder.appendFormalLine("entity.setVersion(hit.getVersion());");
+      }
+      bodyBuilder.appendFormalLine("return entity;");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("} catch (java.io.IOException ioe) {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("throw new IllegalStateException(\"Unable to map " + entityType.getSimpleTypeName() + " document \" + hit.getId(), ioe);");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("}");
+      cidBuilder.addMethod(new MethodMetadataBuilder(cidBuilder.getDeclaredByMetadataId(), Modifier.PRIVATE,
+            new JavaSymbolName(getMapHitMethodName(entityType)), entityType, 
+            AnnotatedJavaType.convertFromJavaTypes(Arrays.asList(SEARCH_HIT)), 
+            Arrays.asList(new JavaSymbolName("hit")), bodyBuilder));
+
+      bodyBuilder = new InvocableMemberBodyBuilder();
+      bodyBuilder.appendFormalLine("final java.util.List<" + entity + "> entities = new java.util.ArrayList<" + entity + ">(hits.getHits().length);");
+      bodyBuilder.appendFormalLine("for (org.elasticsearch.search.SearchHit hit : hits) {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("entities.add(" + getMapHitMethodName(entityType) + "(hit));");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("}");
+      bodyBuilder.appendFormalLine("return entities;");
+      cidBuilder.addMethod(new MethodMetadataBuilder(cidBuilder.getDeclaredByMetadataId(), Modifier.PRIVATE,
+            new JavaSymbolName(getMapHitsMethodName(entityType)), JavaType.listOf(entityType), 
+            AnnotatedJavaType.convertFromJavaTypes(Arrays.asList(SEARCH_HITS)), 
+            Arrays.asList(new JavaSymbolName("hits")), bodyBuilder));
+   }
+
+   /**
+    * Adds to repository implementation a method returning the exact <code>[firstResult, firstResult + maxResults[</code> window
+    * of entities of given type. Entities come in index order, that is stable as long as the index is not written,
+    * as sorting them would load field data for the whole index.
+    * @param cidBuilder the builder holding the repository implementation members (required)
+    * @param entityType the type of entity being managed (required)
+    * @param entityValues the values of the entity annotation (required)
+    */
+   public static void addSearchEntriesMethod(final ClassOrInterfaceTypeDetailsBuilder cidBuilder, final JavaType entityType,
+         final ElasticsearchEntityAnnotationValues entityValues) {
+      addClientField(cidBuilder);
+      addMapHitMethod(cidBuilder, entityType, entityValues);
+
+      final String entity = entityType.getFullyQualifiedTypeName();
+      final InvocableMemberBodyBuilder bodyBuilder = new InvocableMemberBodyBuilder();
+      bodyBuilder.appendFormalLine("final " + DOCUMENT + " document = " + entity + ".class.getAnnotation(" + DOCUMENT + ".class);");
+      bodyBuilder.appendFormalLine("return " + getMapHitsMethodName(entityType) + "(" + CLIENT_FIELD_NAME 
+            + ".prepareSearch(" + getReadIndex(entityValues) + ").setTypes(document.type())");
+      bodyBuilder.appendFormalLine("      .setQuery(org.elasticsearch.index.query.QueryBuilders.matchAllQuery())");
+      bodyBuilder.appendFormalLine("      .setFrom(firstResult).setSize(maxResults)" + getVersionFlag(entityValues) + ".execute().actionGet().getHits());");
+      cidBuilder.addMethod(new MethodMetadataBuilder(cidBuilder.getDeclaredByMetadataId(), Modifier.PUBLIC,
+            new JavaSymbolName(getSearchEntriesMethodName(entityType)), JavaType.listOf(entityType), 
+            AnnotatedJavaType.convertFromJavaTypes(Arrays.asList(JavaType.INT_PRIMITIVE, JavaType.INT_PRIMITIVE)), 
+            Arrays.asList(new JavaSymbolName("firstResult"), new JavaSymbolName("maxResults")), bodyBuilder));
+   }
+
+   /**
+    * Adds to repository implementation a public finder returning the exact <code>[firstResult, firstResult + maxResults[</code> window
+    * of entities of given type, only populated with the fields of given projection. Fields are extracted from
+    * <code>_source</code> on server side so that large unused fields are neither transferred nor deserialized.
+    * @param cidBuilder the builder holding the repository implementation members (required)
+    * @param entityType the type of entity being managed (required)
+    * @param entityValues the values of the entity annotation (required)
+    * @param projection the projection to fetch (required)
+    */
+   public static void addSearchProjectionEntriesMethod(final ClassOrInterfaceTypeDetailsBuilder cidBuilder, final JavaType entityType,
+         final ElasticsearchEntityAnnotationValues entityValues, final ElasticsearchProjection projection) {
+      addClientField(cidBuilder);
+      addMapperField(cidBuilder);
+
+      final String entity = entityType.getFullyQualifiedTypeName();
+      final InvocableMemberBodyBuilder bodyBuilder = new InvocableMemberBodyBuilder();
+      bodyBuilder.appendFormalLine("final " + DOCUMENT + " document = " + entity + ".class.getAnnotation(" + DOCUMENT + ".class);");
+      bodyBuilder.appendFormalLine("final " + SEARCH_HITS + " hits = " + CLIENT_FIELD_NAME 
+            + ".prepareSearch(" + getReadIndex(entityValues) + ").setTypes(document.type())");
+      bodyBuilder.appendFormalLine("      .setQuery(org.elasticsearch.index.query.QueryBuilders.matchAllQuery())");
+      bodyBuilder.appendFormalLine("      .addPartialField(\"" + PROJECTION_FIELD + "\", " + toArray(projection.getIncludes()) 
+            + ", " + toArray(projection.getExcludes()) + ")");
+      bodyBuilder.appendFormalLine("      .setFrom(firstResult).setSize(maxResults)" + getVersionFlag(entityValues) + ".execute().actionGet().getHits();");
+      bodyBuilder.appendFormalLine("final java.util.List<" + entity + "> entities = new java.util.ArrayList<" + entity + ">(hits.getHits().length);");
+      bodyBuilder.appendFormalLine("for (" + SEARCH_HIT + " hit : hits) {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("final " + entity + " entity = " + MAPPER_FIELD_NAME + ".convertValue(hit.field(\"" + PROJECTION_FIELD 
+            + "\").getValue(), " + entity + ".class);");
+      bodyBuilder.appendFormalLine("entity.setId(hit.getId());");
+      if (entityValues.isVersioned()) {
+         bodyBuilder.appendFormalLine("entity.setVersion(hit.getVersion());");
+      }
+      bodyBuilder.appendFormalLine("entities.add(entity);");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("}");
+      bodyBuilder.appendFormalLine("return entities;");
+      cidBuilder.addMethod(new MethodMetadataBuilder(cidBuilder.getDeclaredByMetadataId(), Modifier.PUBLIC,
+            new JavaSymbolName(getSearchProjectionEntriesMethodName(entityType, projection)), JavaType.listOf(entityType), 
+            AnnotatedJavaType.convertFromJavaTypes(Arrays.asList(JavaType.INT_PRIMITIVE, JavaType.INT_PRIMITIVE)), 
+            Arrays.asList(new JavaSymbolName("firstResult"), new JavaSymbolName("maxResults")), bodyBuilder));
+   }
+
+   /**
+    * Returns the search builder call asking for document versions if entity is versioned, so that
+    * entities read from hits can be saved back without conflicting.
+    * @param entityValues the values of the entity annotation (required)
+    * @return a possibly empty call
+    */
+   private static String getVersionFlag(final ElasticsearchEntityAnnotationValues entityValues) {
+      return entityValues.isVersioned() ? ".setVersion(true)" : "";
+   }
+
+   private static String toArray(final List<String> values) {
+      if (values.isEmpty()) {
+         return "null";
+      }
+      return "new String[] { \"" + StringUtils.join(values, "\", \"") + "\" }";
+   }
+
+   /**
+    * Adds to repository implementation a public finder returning the exact <code>[firstResult, firstResult + maxResults[</code> window
+    * of entities of given type matching the finder fields. Number and date fields are matched on an inclusive
+    * range, other fields on their exact term; <code>null</code> values are not matched. Matching happens in filter 
+    * context so documents are not scored and filters are cached. Finders on fields entity does not declare are skipped
+    * with a warning.
+    * Results are looked up in the repository cache first if repository asks for caching.
+    * @param cidBuilder the builder holding the repository implementation members (required)
+    * @param entityType the type of entity being managed (required)
+    * @param entityValues the values of the entity annotation (required)
+    * @param repositoryValues the values of the repository annotation (required)
+    * @param finder the finder to add (required)
+    */
+   public static void addFinderMethod(final ClassOrInterfaceTypeDetailsBuilder cidBuilder, final JavaType entityType,
+         final ElasticsearchEntityAnnotationValues entityValues, final RepositoryElasticsearchAnnotationValues repositoryValues, 
+         final ElasticsearchFinder finder) {
+      final List<JavaType> parameterTypes = new ArrayList<JavaType>();
+      final List<JavaSymbolName> parameterNames = new ArrayList<JavaSymbolName>();
+      final InvocableMemberBodyBuilder bodyBuilder = new InvocableMemberBodyBuilder();
+      bodyBuilder.appendFormalLine("final " + DOCUMENT + " document = " + entityType.getFullyQualifiedTypeName() + ".class.getAnnotation(" + DOCUMENT + ".class);");
+      bodyBuilder.appendFormalLine("final org.elasticsearch.index.query.BoolFilterBuilder filter = org.elasticsearch.index.query.FilterBuilders.boolFilter()");
+      bodyBuilder.appendFormalLine("      .must(org.elasticsearch.index.query.FilterBuilders.matchAllFilter());");
+      for (String fieldName : finder.getFieldNames()) {
+         final JavaType fieldType = entityValues.getFieldType(fieldName);
+         if (fieldType == null) {
+            LOGGER.warning("Finder '" + finder.getDeclaration() + "' skipped: " + entityType.getSimpleTypeName() 
+                  + " has no field '" + fieldName + "'");
+            return;
+         }
+         final JavaType parameterType = getObjectType(fieldType);
+         final String suffix = StringUtils.capitalize(fieldName);
+         if (isRangeType(parameterType)) {
+            parameterTypes.add(parameterType);
+            parameterNames.add(new JavaSymbolName("min" + suffix));
+            parameterTypes.add(parameterType);
+            parameterNames.add(new JavaSymbolName("max" + suffix));
+            bodyBuilder.appendFormalLine("if (min" + suffix + " != null || max" + suffix + " != null) {");
+            bodyBuilder.indent();
+            bodyBuilder.appendFormalLine("filter.must(org.elasticsearch.index.query.FilterBuilders.rangeFilter(\"" + fieldName 
+                  + "\").from(min" + suffix + ").to(max" + suffix + "));");
+         } else {
+            parameterTypes.add(parameterType);
+            parameterNames.add(new JavaSymbolName(fieldName));
+            bodyBuilder.appendFormalLine("if (" + fieldName + " != null) {");
+            bodyBuilder.indent();
+            bodyBuilder.appendFormalLine("filter.must(org.elasticsearch.index.query.FilterBuilders.termFilter(\"" + fieldName + "\", " 
+                  + fieldName + "));");
+         }
+         bodyBuilder.indentRemove();
+         bodyBuilder.appendFormalLine("}");
+      }
+      addClientField(cidBuilder);
+      addMapHitMethod(cidBuilder, entityType, entityValues);
+      parameterTypes.add(JavaType.INT_PRIMITIVE);
+      parameterNames.add(new JavaSymbolName("firstResult"));
+      parameterTypes.add(JavaType.INT_PRIMITIVE);
+      parameterNames.add(new JavaSymbolName("maxResults"));
+
+      final String entity = entityType.getFullyQualifiedTypeName();
+      if (repositoryValues.isCached()) {
+         addCacheMembers(cidBuilder, entityType, repositoryValues);
+         addCacheCopyMethods(cidBuilder, entityType, entityValues);
+         bodyBuilder.appendFormalLine("final String cacheKey = \"" + finder.getMethodName(entityType) + "\" + java.util.Arrays.asList(" 
+               + StringUtils.join(parameterNames, ", ") + ");");
+         bodyBuilder.appendFormalLine("synchronized (" + getCacheFieldName(entityType) + ") {");
+         bodyBuilder.indent();
+         bodyBuilder.appendFormalLine("if (" + getCacheLookupMethodName(entityType) + "(cacheKey)) {");
+         bodyBuilder.indent();
+         bodyBuilder.appendFormalLine("return " + getCacheCopiesMethodName(entityType) + "(" + getCachedListsFieldName(entityType) + ".get(cacheKey));");
+         bodyBuilder.indentRemove();
+         bodyBuilder.appendFormalLine("}");
+         bodyBuilder.indentRemove();
+         bodyBuilder.appendFormalLine("}");
+      }
+      bodyBuilder.appendFormalLine("final java.util.List<" + entity + "> entities = " + getMapHitsMethodName(entityType) + "(" + CLIENT_FIELD_NAME 
+            + ".prepareSearch(" + getReadIndex(entityValues) + ").setTypes(document.type())");
+      bodyBuilder.appendFormalLine("      .setQuery(org.elasticsearch.index.query.QueryBuilders.constantScoreQuery(filter))");
+      bodyBuilder.appendFormalLine("      .setFrom(firstResult).setSize(maxResults)" + getVersionFlag(entityValues) + ".execute().actionGet().getHits());");
+      if (repositoryValues.isCached()) {
+         bodyBuilder.appendFormalLine(getCacheStoreMethodName(entityType) + "(cacheKey, " + getCacheCopiesMethodName(entityType) + "(entities));");
+      }
+      bodyBuilder.appendFormalLine("return entities;");
+      cidBuilder.addMethod(new MethodMetadataBuilder(cidBuilder.getDeclaredByMetadataId(), Modifier.PUBLIC,
+            new JavaSymbolName(finder.getMethodName(entityType)), JavaType.listOf(entityType), 
+            AnnotatedJavaType.convertFromJavaTypes(parameterTypes), parameterNames, bodyBuilder));
+   }
+
+   /**
+    * Returns the wrapper type of a primitive type so that finder parameters may be <code>null</code>.
+    * @param type the type to wrap (required)
+    * @return a non-primitive type
+    */
+   private static JavaType getObjectType(final JavaType type) {
+      if (!type.isPrimitive()) {
+         return type;
+      } else if (JavaType.INT_PRIMITIVE.equals(type)) {
+         return JavaType.INT_OBJECT;
+      } else if (JavaType.LONG_PRIMITIVE.equals(type)) {
+         return JavaType.LONG_OBJECT;
+      } else if (JavaType.SHORT_PRIMITIVE.equals(type)) {
+         return JavaType.SHORT_OBJECT;
+      } else if (JavaType.FLOAT_PRIMITIVE.equals(type)) {
+         return JavaType.FLOAT_OBJECT;
+      } else if (JavaType.DOUBLE_PRIMITIVE.equals(type)) {
+         return JavaType.DOUBLE_OBJECT;
+      } else if (JavaType.BYTE_PRIMITIVE.equals(type)) {
+         return JavaType.BYTE_OBJECT;
+      } else if (JavaType.CHAR_PRIMITIVE.equals(type)) {
+         return JavaType.CHAR_OBJECT;
+      }
+      return JavaType.BOOLEAN_OBJECT;
+   }
+
+   /**
+    * Tell if values of given type are rather matched on ranges than on exact terms.
+    * @param type the non-primitive type of values (required)
+    * @return true for numbers and dates
+    */
+   private static boolean isRangeType(final JavaType type) {
+      return JavaType.INT_OBJECT.equals(type) || JavaType.LONG_OBJECT.equals(type) || JavaType.SHORT_OBJECT.equals(type)
+            || JavaType.FLOAT_OBJECT.equals(type) || JavaType.DOUBLE_OBJECT.equals(type) || JavaType.BIG_DECIMAL.equals(type)
+            || JavaType.BIG_INTEGER.equals(type) || DATE.equals(type) || CALENDAR.equals(type);
+   }
+
+   /**
+    * Adds to repository implementation a method returning at most <code>maxResults</code> entities of given type that come after
+    * the <code>lastId</code> cursor (or from the beginning if <code>null</code>). Entities are sorted on their
+    * unique identifier and cursor is applied as a range filter, so late pages cost the same as first one. Cursor
+    * filters are never cached since each of them is only used once.
+    * @param cidBuilder the builder holding the repository implementation members (required)
+    * @param entityType the type of entity being managed (required)
+    * @param entityValues the values of the entity annotation (required)
+    */
+   public static void addSearchEntriesAfterMethod(final ClassOrInterfaceTypeDetailsBuilder cidBuilder, final JavaType entityType,
+         final ElasticsearchEntityAnnotationValues entityValues) {
+      addClientField(cidBuilder);
+      addMapHitMethod(cidBuilder, entityType, entityValues);
+
+      final String entity = entityType.getFullyQualifiedTypeName();
+      final InvocableMemberBodyBuilder bodyBuilder = new InvocableMemberBodyBuilder();
+      bodyBuilder.appendFormalLine("final " + DOCUMENT + " document = " + entity + ".class.getAnnotation(" + DOCUMENT + ".class);");
+      bodyBuilder.appendFormalLine("org.elasticsearch.index.query.QueryBuilder query = org.elasticsearch.index.query.QueryBuilders.matchAllQuery();");
+      bodyBuilder.appendFormalLine("if (lastId != null) {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("query = org.elasticsearch.index.query.QueryBuilders.filteredQuery(query,");
+      bodyBuilder.appendFormalLine("      org.elasticsearch.index.query.FilterBuilders.rangeFilter(\"" + UID_FIELD + "\").gt(document.type() + \"#\" + lastId).cache(false));");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("}");
+      bodyBuilder.appendFormalLine("return " + getMapHitsMethodName(entityType) + "(" + CLIENT_FIELD_NAME 
+            + ".prepareSearch(" + getReadIndex(entityValues) + ").setTypes(document.type()).setQuery(query)");
+      bodyBuilder.appendFormalLine("      .addSort(org.elasticsearch.search.sort.SortBuilders.fieldSort(\"" + UID_FIELD + "\"))");
+      bodyBuilder.appendFormalLine("      .setSize(maxResults)" + getVersionFlag(entityValues) + ".execute().actionGet().getHits());");
+      cidBuilder.addMethod(new MethodMetadataBuilder(cidBuilder.getDeclaredByMetadataId(), Modifier.PUBLIC,
+            new JavaSymbolName(getSearchEntriesAfterMethodName(entityType)), JavaType.listOf(entityType), 
+            AnnotatedJavaType.convertFromJavaTypes(Arrays.asList(JavaType.STRING, JavaType.INT_PRIMITIVE)), 
+            Arrays.asList(new JavaSymbolName("lastId"), new JavaSymbolName("maxResults")), bodyBuilder));
+   }
+
+   /**
+    * Adds to repository implementation a method counting entities of given type through the count API, so that no hit 
+    * is ever scored nor fetched. When <code>cacheSeconds</code> is positive, the count is kept by repository
+    * implementation for this duration or until it writes entities of this type.
+    * @param cidBuilder the builder holding the repository implementation members (required)
+    * @param entityType the type of entity being managed (required)
+    * @param entityValues the values of the entity annotation (required)
+    * @param cacheSeconds how long the count is cached, 0 for no caching
+    */
+   public static void addCountMethod(final ClassOrInterfaceTypeDetailsBuilder cidBuilder, final JavaType entityType, 
+         final ElasticsearchEntityAnnotationValues entityValues, final int cacheSeconds) {
+      addClientField(cidBuilder);
+
+      final String entity = entityType.getFullyQualifiedTypeName();
+      final String countField = getCountCacheFieldName(entityType);
+      final String expiryField = getCountExpiryFieldName(entityType);
+      final InvocableMemberBodyBuilder bodyBuilder = new InvocableMemberBodyBuilder();
+      if (cacheSeconds > 0) {
+         addCountCacheFields(cidBuilder, entityType);
+         bodyBuilder.appendFormalLine("final long now = System.currentTimeMillis();");
+         bodyBuilder.appendFormalLine("if (now < " + expiryField + ") {");
+         bodyBuilder.indent();
+         bodyBuilder.appendFormalLine("return " + countField + ";");
+         bodyBuilder.indentRemove();
+         bodyBuilder.appendFormalLine("}");
+      }
+      bodyBuilder.appendFormalLine("final " + DOCUMENT + " document = " + entity + ".class.getAnnotation(" + DOCUMENT + ".class);");
+      bodyBuilder.appendFormalLine("final long count = " + CLIENT_FIELD_NAME + ".prepareCount(" + getReadIndex(entityValues) + ").setTypes(document.type())");
+      bodyBuilder.appendFormalLine("      .execute().actionGet().getCount();");
+      if (cacheSeconds > 0) {
+         bodyBuilder.appendFormalLine(countField + " = count;");
+         bodyBuilder.appendFormalLine(expiryField + " = now + " + (cacheSeconds * 1000L) + "L;");
+      }
+      bodyBuilder.appendFormalLine("return count;");
+      cidBuilder.addMethod(new MethodMetadataBuilder(cidBuilder.getDeclaredByMetadataId(), Modifier.PUBLIC,
+            new JavaSymbolName(getCountMethodName(entityType)), JavaType.LONG_PRIMITIVE, bodyBuilder));
+   }
+
+   private static String getCountCacheFieldName(final JavaType entityType) {
+      return StringUtils.uncapitalize(entityType.getSimpleTypeName()) + "CachedCount";
+   }
+
+   private static String getCountExpiryFieldName(final JavaType entityType) {
+      return StringUtils.uncapitalize(entityType.getSimpleTypeName()) + "CachedCountExpiry";
+   }
+
+   /**
+    * Adds to repository implementation the fields holding the cached count of entities of given type and its expiry time.
+    * @param cidBuilder the builder holding the repository implementation members (required)
+    * @param entityType the type of entity being managed (required)
+    */
+   private static void addCountCacheFields(final ClassOrInterfaceTypeDetailsBuilder cidBuilder, final JavaType entityType) {
+      cidBuilder.addField(new FieldMetadataBuilder(cidBuilder.getDeclaredByMetadataId(), Modifier.PRIVATE | Modifier.VOLATILE,
+            new JavaSymbolName(getCountCacheFieldName(entityType)), JavaType.LONG_PRIMITIVE, null));
+      cidBuilder.addField(new FieldMetadataBuilder(cidBuilder.getDeclaredByMetadataId(), Modifier.PRIVATE | Modifier.VOLATILE,
+            new JavaSymbolName(getCountExpiryFieldName(entityType)), JavaType.LONG_PRIMITIVE, null));
+   }
+
+   /**
+    * Returns the name of the support method that lists all entities of given type.
+    * @param entityType the type of entity being managed (required)
+    * @return a non-blank method name
+    */
+   public static String getListAllMethodName(final JavaType entityType) {
+      return "listAll" + entityType.getSimpleTypeName();
+   }
+
+   /**
+    * Adds to repository implementation a method returning a lazy iterable over all entities of given type. Each iterator is a 
+    * {@link CloseableIterator} that opens a scan/scroll on its first use and fetches batches of 
+    * {@link #SCROLL_BATCH_SIZE} hits, so memory usage does not depend on index size. Along comes a method 
+    * returning a read-only lazy list view, for callers whose contract is a list. The view opens a scan at once and 
+    * takes its size from the scan total hits, so it costs no count request; its first iterator consumes this scan 
+    * and later ones open their own. Entities are never all held in memory, which makes positional access 
+    * sequential : <code>get(i)</code> scrolls over the first <code>i</code> entities.
+    * @param cidBuilder the builder holding the repository implementation members (required)
+    * @param entityType the type of entity being managed (required)
+    * @param entityValues the values of the entity annotation (required)
+    */
+   public static void addScrollAllMethod(final ClassOrInterfaceTypeDetailsBuilder cidBuilder, final JavaType entityType,
+         final ElasticsearchEntityAnnotationValues entityValues) {
+      addStreamMethods(cidBuilder, entityType, entityValues);
+
+      final String entity = entityType.getFullyQualifiedTypeName();
+      InvocableMemberBodyBuilder bodyBuilder = new InvocableMemberBodyBuilder();
+      bodyBuilder.appendFormalLine("return new java.lang.Iterable<" + entity + ">() {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("public java.util.Iterator<" + entity + "> iterator() {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("return " + getStreamAllMethodName(entityType) + "();");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("}");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("};");
+      cidBuilder.addMethod(new MethodMetadataBuilder(cidBuilder.getDeclaredByMetadataId(), Modifier.PUBLIC,
+            new JavaSymbolName(getScrollAllMethodName(entityType)), getIterableOf(entityType), bodyBuilder));
+
+      final String iteratorType = CLOSEABLE_ITERATOR + "<" + entity + ">";
+      bodyBuilder = new InvocableMemberBodyBuilder();
+      bodyBuilder.appendFormalLine("final " + DOCUMENT + " document = " + entity + ".class.getAnnotation(" + DOCUMENT + ".class);");
+      bodyBuilder.appendFormalLine("final org.elasticsearch.action.search.SearchResponse scan = " + CLIENT_FIELD_NAME + ".prepareSearch(" 
+            + getReadIndex(entityValues) + ").setTypes(document.type())");
+      bodyBuilder.appendFormalLine("      .setSearchType(org.elasticsearch.action.search.SearchType.SCAN).setScroll(" + SCROLL_KEEP_ALIVE + ")");
+      bodyBuilder.appendFormalLine("      .setQuery(org.elasticsearch.index.query.QueryBuilders.matchAllQuery()).setSize(" + SCROLL_BATCH_SIZE + ")" 
+            + getVersionFlag(entityValues) + ".execute().actionGet();");
+      bodyBuilder.appendFormalLine("final int size = (int) Math.min(scan.getHits().getTotalHits(), Integer.MAX_VALUE);");
+      bodyBuilder.appendFormalLine("return new java.util.AbstractList<" + entity + ">() {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("private String scanScrollId = scan.getScrollId();");
+      bodyBuilder.appendFormalLine("public synchronized " + iteratorType + " iterator() {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("// Scan opened for size is consumed by first iterator, later ones open their own.");
+      bodyBuilder.appendFormalLine("final String scrollId = scanScrollId;");
+      bodyBuilder.appendFormalLine("scanScrollId = null;");
+      bodyBuilder.appendFormalLine("return " + getScrollIteratorMethodName(entityType) + "(org.elasticsearch.index.query.QueryBuilders.matchAllQuery(), scrollId);");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("}");
+      bodyBuilder.appendFormalLine("public " + entity + " get(int index) {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("if (index < 0 || index >= size) {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("throw new IndexOutOfBoundsException(\"Index: \" + index + \", Size: \" + size);");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("}");
+      bodyBuilder.appendFormalLine("final " + iteratorType + " iterator = iterator();");
+      bodyBuilder.appendFormalLine("try {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("for (int i = 0; i < index; i++) {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("iterator.next();");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("}");
+      bodyBuilder.appendFormalLine("return iterator.next();");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("} finally {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("iterator.close();");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("}");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("}");
+      bodyBuilder.appendFormalLine("public int size() {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("return size;");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("}");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("};");
+      cidBuilder.addMethod(new MethodMetadataBuilder(cidBuilder.getDeclaredByMetadataId(), Modifier.PUBLIC,
+            new JavaSymbolName(getListAllMethodName(entityType)), JavaType.listOf(entityType), bodyBuilder));
+   }
+
+   /**
+    * Returns the name of the method streaming entities of given type matching a query.
+    * @param entityType the type of entity being managed (required)
+    * @return a non-blank method name
+    */
+   public static String getStreamMethodName(final JavaType entityType) {
+      return "stream" + entityType.getSimpleTypeName();
+   }
+
+   /**
+    * Returns the name of the method streaming all entities of given type.
+    * @param entityType the type of entity being managed (required)
+    * @return a non-blank method name
+    */
+   public static String getStreamAllMethodName(final JavaType entityType) {
+      return "streamAll" + entityType.getSimpleTypeName();
+   }
+
+   /**
+    * Returns the name of the support method creating scroll iterators over entities of given type.
+    * @param entityType the type of entity being managed (required)
+    * @return a non-blank method name
+    */
+   private static String getScrollIteratorMethodName(final JavaType entityType) {
+      return "new" + entityType.getSimpleTypeName() + "ScrollIterator";
+   }
+
+   /**
+    * Adds to repository implementation public methods streaming all entities of given type, or those matching a query, through 
+    * a {@link CloseableIterator} over scan/scroll batches of {@link #SCROLL_BATCH_SIZE} hits. The scroll is only
+    * opened once the iterator is first used, unless the iterator is given a scroll already opened. Only the current batch is held in memory while the next one is 
+    * already being fetched, and closing the iterator clears the scroll context on server side. An iterator
+    * abandoned without being closed keeps its context until {@link #SCROLL_KEEP_ALIVE} expires.
+    * @param cidBuilder the builder holding the repository implementation members (required)
+    * @param entityType the type of entity being managed (required)
+    * @param entityValues the values of the entity annotation (required)
+    */
+   public static void addStreamMethods(final ClassOrInterfaceTypeDetailsBuilder cidBuilder, final JavaType entityType,
+         final ElasticsearchEntityAnnotationValues entityValues) {
+      addClientField(cidBuilder);
+      addMapHitMethod(cidBuilder, entityType, entityValues);
+
+      final String entity = entityType.getFullyQualifiedTypeName();
+      final String iteratorType = CLOSEABLE_ITERATOR + "<" + entity + ">";
+      final String nextBatchType = "org.elasticsearch.action.ListenableActionFuture<org.elasticsearch.action.search.SearchResponse>";
+      InvocableMemberBodyBuilder bodyBuilder = new InvocableMemberBodyBuilder();
+      bodyBuilder.appendFormalLine("final " + DOCUMENT + " document = " + entity + ".class.getAnnotation(" + DOCUMENT + ".class);");
+      // Generated parameters are not final and anonymous classes of Java 6 only see final locals.
+      bodyBuilder.appendFormalLine("final " + QUERY_BUILDER.getFullyQualifiedTypeName() + " scanQuery = query;");
+      bodyBuilder.appendFormalLine("final String openedScrollId = scrollId;");
+      bodyBuilder.appendFormalLine("return new " + iteratorType + "() {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("private boolean opened = false;");
+      bodyBuilder.appendFormalLine("private String scrollId = openedScrollId;");
+      bodyBuilder.appendFormalLine("private " + nextBatchType + " nextBatch;");
+      bodyBuilder.appendFormalLine("private java.util.Iterator<org.elasticsearch.search.SearchHit> batch = java.util.Collections.<org.elasticsearch.search.SearchHit>emptyList().iterator();");
+      bodyBuilder.appendFormalLine("private " + nextBatchType + " fetch() {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("return " + CLIENT_FIELD_NAME + ".prepareSearchScroll(scrollId).setScroll(" + SCROLL_KEEP_ALIVE + ").execute();");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("}");
+      bodyBuilder.appendFormalLine("public boolean hasNext() {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("if (!opened) {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("// Scroll context is only opened once iteration actually starts.");
+      bodyBuilder.appendFormalLine("opened = true;");
+      bodyBuilder.appendFormalLine("if (scrollId == null) {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("scrollId = " + CLIENT_FIELD_NAME + ".prepareSearch(" + getReadIndex(entityValues) + ").setTypes(document.type())");
+      bodyBuilder.appendFormalLine("      .setSearchType(org.elasticsearch.action.search.SearchType.SCAN).setScroll(" + SCROLL_KEEP_ALIVE + ")");
+      bodyBuilder.appendFormalLine("      .setQuery(scanQuery).setSize(" + SCROLL_BATCH_SIZE + ")" + getVersionFlag(entityValues) + ".execute().actionGet().getScrollId();");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("}");
+      bodyBuilder.appendFormalLine("nextBatch = fetch();");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("}");
+      bodyBuilder.appendFormalLine("while (!batch.hasNext() && nextBatch != null) {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("final org.elasticsearch.action.search.SearchResponse response = nextBatch.actionGet();");
+      bodyBuilder.appendFormalLine("scrollId = response.getScrollId();");
+      bodyBuilder.appendFormalLine("if (response.getHits().getHits().length == 0) {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("close();");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("} else {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("// Previous batch is released and next one is fetched while this one is consumed.");
+      bodyBuilder.appendFormalLine("batch = response.getHits().iterator();");
+      bodyBuilder.appendFormalLine("nextBatch = fetch();");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("}");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("}");
+      bodyBuilder.appendFormalLine("return batch.hasNext();");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("}");
+      bodyBuilder.appendFormalLine("public " + entity + " next() {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("if (!hasNext()) {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("throw new java.util.NoSuchElementException();");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("}");
+      bodyBuilder.appendFormalLine("return " + getMapHitMethodName(entityType) + "(batch.next());");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("}");
+      bodyBuilder.appendFormalLine("public void remove() {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("throw new UnsupportedOperationException();");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("}");
+      bodyBuilder.appendFormalLine("public void close() {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("// A scroll handed over but never fetched has to be cleared too.");
+      bodyBuilder.appendFormalLine("final boolean active = nextBatch != null || (!opened && scrollId != null);");
+      bodyBuilder.appendFormalLine("opened = true;");
+      bodyBuilder.appendFormalLine("if (active) {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("nextBatch = null;");
+      bodyBuilder.appendFormalLine("batch = java.util.Collections.<org.elasticsearch.search.SearchHit>emptyList().iterator();");
+      bodyBuilder.appendFormalLine(CLIENT_FIELD_NAME + ".prepareClearScroll().addScrollId(scrollId).execute();");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("}");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("}");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("};");
+      final JavaType returnType = new JavaType(CLOSEABLE_ITERATOR, 0, DataType.TYPE, null, Arrays.asList(entityType));
+      cidBuilder.addMethod(new MethodMetadataBuilder(cidBuilder.getDeclaredByMetadataId(), Modifier.PRIVATE,
+            new JavaSymbolName(getScrollIteratorMethodName(entityType)), returnType, 
+            AnnotatedJavaType.convertFromJavaTypes(Arrays.asList(QUERY_BUILDER, JavaType.STRING)), 
+            Arrays.asList(new JavaSymbolName("query"), new JavaSymbolName("scrollId")), bodyBuilder));
+
+      bodyBuilder = new InvocableMemberBodyBuilder();
+      bodyBuilder.appendFormalLine("return " + getScrollIteratorMethodName(entityType) + "(query, null);");
+      cidBuilder.addMethod(new MethodMetadataBuilder(cidBuilder.getDeclaredByMetadataId(), Modifier.PUBLIC,
+            new JavaSymbolName(getStreamMethodName(entityType)), returnType, 
+            AnnotatedJavaType.convertFromJavaTypes(Arrays.asList(QUERY_BUILDER)), 
+            Arrays.asList(new JavaSymbolName("query")), bodyBuilder));
+
+      bodyBuilder = new InvocableMemberBodyBuilder();
+      bodyBuilder.appendFormalLine("return " + getStreamMethodName(entityType) + "(org.elasticsearch.index.query.QueryBuilders.matchAllQuery());");
+      cidBuilder.addMethod(new MethodMetadataBuilder(cidBuilder.getDeclaredByMetadataId(), Modifier.PUBLIC,
+            new JavaSymbolName(getStreamAllMethodName(entityType)), returnType, bodyBuilder));
+   }
+
+   /**
+    * Returns the name of the support method that indexes a single entity of given type.
+    * @param entityType the type of entity being managed (required)
+    * @return a non-blank method name
+    */
+   public static String getIndexMethodName(final JavaType entityType) {
+      return "index" + entityType.getSimpleTypeName();
+   }
+
+   /**
+    * Returns the name of the support method that gets a single entity of given type.
+    * @param entityType the type of entity being managed (required)
+    * @return a non-blank method name
+    */
+   public static String getGetMethodName(final JavaType entityType) {
+      return "get" + entityType.getSimpleTypeName();
+   }
+
+   /**
+    * Returns the name of the support method that deletes a single entity of given type.
+    * @param entityType the type of entity being managed (required)
+    * @return a non-blank method name
+    */
+   public static String getDeleteMethodName(final JavaType entityType) {
+      return "delete" + entityType.getSimpleTypeName() + "Document";
+   }
+
+   /**
+    * Returns the name of the support method that bulk indexes entities of given type.
+    * @param entityType the type of entity being managed (required)
+    * @return a non-blank method name
+    */
+   public static String getBulkIndexMethodName(final JavaType entityType) {
+      return "bulkIndex" + entityType.getSimpleTypeName();
+   }
+
+   /**
+    * Returns the name of the support method that bulk deletes entities of given type.
+    * @param entityType the type of entity being managed (required)
+    * @return a non-blank method name
+    */
+   public static String getBulkDeleteMethodName(final JavaType entityType) {
+      return "bulkDelete" + entityType.getSimpleTypeName();
+   }
+
+   /**
+    * Adds to repository implementation the fields holding bulk requests limits. Both are externalized as
+    * <code>elasticsearch.bulk.actions</code> and <code>elasticsearch.bulk.bytes</code> properties.
+    * @param cidBuilder the builder holding the repository implementation members (required)
+    */
+   public static void addBulkLimitFields(final ClassOrInterfaceTypeDetailsBuilder cidBuilder) {
+      final AnnotationMetadataBuilder actionsAnnotation = new AnnotationMetadataBuilder(VALUE);
+      actionsAnnotation.addStringAttribute("value", "${elasticsearch.bulk.actions:" + BULK_ACTIONS + "}");
+      cidBuilder.addField(new FieldMetadataBuilder(cidBuilder.getDeclaredByMetadataId(), Modifier.PRIVATE,
+            Arrays.asList(actionsAnnotation), new JavaSymbolName(BULK_ACTIONS_FIELD_NAME), JavaType.INT_PRIMITIVE));
+
+      final AnnotationMetadataBuilder bytesAnnotation = new AnnotationMetadataBuilder(VALUE);
+      bytesAnnotation.addStringAttribute("value", "${elasticsearch.bulk.bytes:" + BULK_BYTES + "}");
+      cidBuilder.addField(new FieldMetadataBuilder(cidBuilder.getDeclaredByMetadataId(), Modifier.PRIVATE,
+            Arrays.asList(bytesAnnotation), new JavaSymbolName(BULK_BYTES_FIELD_NAME), JavaType.LONG_PRIMITIVE));
+   }
+
+   /**
+    * Adds to repository implementation a method executing a bulk request and checking for failures. Indexed entities, if any, 
+    * get the identifiers Elasticsearch may have generated.
+    * @param cidBuilder the builder holding the repository implementation members (required)
+    */
+   public static void addExecuteBulkMethod(final ClassOrInterfaceTypeDetailsBuilder cidBuilder) {
+      final InvocableMemberBodyBuilder bodyBuilder = new InvocableMemberBodyBuilder();
+      bodyBuilder.appendFormalLine("final org.elasticsearch.action.bulk.BulkResponse response = bulk.execute().actionGet();");
+      bodyBuilder.appendFormalLine("if (response.hasFailures()) {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("throw new IllegalStateException(response.buildFailureMessage());");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("}");
+      bodyBuilder.appendFormalLine("return response;");
+      cidBuilder.addMethod(new MethodMetadataBuilder(cidBuilder.getDeclaredByMetadataId(), Modifier.PRIVATE,
+            new JavaSymbolName(EXECUTE_BULK_METHOD_NAME), new JavaType("org.elasticsearch.action.bulk.BulkResponse"), 
+            AnnotatedJavaType.convertFromJavaTypes(Arrays.asList(BULK_REQUEST_BUILDER)), 
+            Arrays.asList(new JavaSymbolName("bulk")), bodyBuilder));
+   }
+
+   /**
+    * Adds to repository implementation a method indexing a single entity of given type. The index is refreshed
+    * afterwards only if entity refresh mode asks for it. Versioned entities are only indexed if their
+    * document is still at the entity version, conflicts being reported as optimistic locking failures.
+    * @param cidBuilder the builder holding the repository implementation members (required)
+    * @param entityType the type of entity being managed (required)
+    * @param entityValues the values of the entity annotation (required)
+    * @param repositoryValues the values of the repository annotation (required)
+    */
+   public static void addIndexMethod(final ClassOrInterfaceTypeDetailsBuilder cidBuilder, final JavaType entityType,
+         final ElasticsearchEntityAnnotationValues entityValues, final RepositoryElasticsearchAnnotationValues repositoryValues) {
+      addClientField(cidBuilder);
+      addMapperField(cidBuilder);
+
+      final String entity = entityType.getFullyQualifiedTypeName();
+      final JavaSymbolName parameterName = JavaSymbolName.getReservedWordSafeName(entityType);
+      final InvocableMemberBodyBuilder bodyBuilder = new InvocableMemberBodyBuilder();
+      bodyBuilder.appendFormalLine("final " + DOCUMENT + " document = " + entity + ".class.getAnnotation(" + DOCUMENT + ".class);");
+      bodyBuilder.appendFormalLine("try {");
+      bodyBuilder.indent();
+      if (entityValues.isVersioned()) {
+         // Only documents at the version entity was read with are overwritten, new entities have no version yet.
+         bodyBuilder.appendFormalLine("final org.elasticsearch.action.index.IndexRequestBuilder request = " + CLIENT_FIELD_NAME 
+               + ".prepareIndex(" + getWriteIndex(cidBuilder, entityType, entityValues) + ", document.type(), " + parameterName + ".getId())");
+         bodyBuilder.appendFormalLine("      .setSource(" + MAPPER_FIELD_NAME + ".writeValueAsString(" + parameterName + "))" 
+               + getRouting(entityValues, parameterName.getSymbolName()));
+         bodyBuilder.appendFormalLine("      .setRefresh(" + (entityValues.getRefreshMode() == RefreshMode.IMMEDIATE) + ");");
+         bodyBuilder.appendFormalLine("if (" + parameterName + ".getVersion() != null) {");
+         bodyBuilder.indent();
+         bodyBuilder.appendFormalLine("request.setVersion(" + parameterName + ".getVersion());");
+         bodyBuilder.indentRemove();
+         bodyBuilder.appendFormalLine("}");
+         bodyBuilder.appendFormalLine("final " + INDEX_RESPONSE + " response = request.execute().actionGet();");
+         bodyBuilder.appendFormalLine(parameterName + ".setId(response.getId());");
+         bodyBuilder.appendFormalLine(parameterName + ".setVersion(response.getVersion());");
+         bodyBuilder.indentRemove();
+         bodyBuilder.appendFormalLine("} catch (" + ELASTICSEARCH_EXCEPTION + " ee) {");
+         bodyBuilder.indent();
+         bodyBuilder.appendFormalLine("if (org.elasticsearch.ExceptionsHelper.unwrapCause(ee) instanceof " + VERSION_CONFLICT + ") {");
+         bodyBuilder.indent();
+         bodyBuilder.appendFormalLine("throw new " + OPTIMISTIC_LOCKING_FAILURE + "(\"" + entityType.getSimpleTypeName() + " \" + " 
+               + parameterName + ".getId() + \" has been modified since version \" + " + parameterName + ".getVersion(), ee);");
+         bodyBuilder.indentRemove();
+         bodyBuilder.appendFormalLine("}");
+         bodyBuilder.appendFormalLine("throw ee;");
+      } else {
+         bodyBuilder.appendFormalLine(parameterName + ".setId(" + CLIENT_FIELD_NAME + ".prepareIndex(" + getWriteIndex(cidBuilder, entityType, entityValues) + ", document.type(), " 
+               + parameterName + ".getId())");
+         bodyBuilder.appendFormalLine("      .setSource(" + MAPPER_FIELD_NAME + ".writeValueAsString(" + parameterName + "))" 
+               + getRouting(entityValues, parameterName.getSymbolName()));
+         bodyBuilder.appendFormalLine("      .setRefresh(" + (entityValues.getRefreshMode() == RefreshMode.IMMEDIATE) + ").execute().actionGet().getId());");
+      }
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("} catch (java.io.IOException ioe) {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("throw new IllegalStateException(\"Unable to serialize " + entityType.getSimpleTypeName() + " \" + " 
+            + parameterName + ".getId(), ioe);");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("}");
+      appendCacheEviction(cidBuilder, bodyBuilder, entityType, repositoryValues, parameterName + ".getId()");
+      bodyBuilder.appendFormalLine("return " + parameterName + ";");
+      cidBuilder.addMethod(new MethodMetadataBuilder(cidBuilder.getDeclaredByMetadataId(), Modifier.PUBLIC,
+            new JavaSymbolName(getIndexMethodName(entityType)), entityType, 
+            AnnotatedJavaType.convertFromJavaTypes(Arrays.asList(entityType)), 
+            Arrays.asList(parameterName), bodyBuilder));
+   }
+
+   /**
+    * Returns the name of the public method that merges partial fields into an entity document.
+    * @param entityType the type of entity being managed (required)
+    * @return a non-blank method name
+    */
+   public static String getUpdateMethodName(final JavaType entityType) {
+      return "update" + entityType.getSimpleTypeName();
+   }
+
+   /**
+    * Returns the name of the public method that updates a single field of an entity document.
+    * @param entityType the type of entity being managed (required)
+    * @return a non-blank method name
+    */
+   public static String getUpdateFieldMethodName(final JavaType entityType) {
+      return "update" + entityType.getSimpleTypeName() + "Field";
+   }
+
+   /**
+    * Returns the name of the public method that updates an entity document through a script.
+    * @param entityType the type of entity being managed (required)
+    * @return a non-blank method name
+    */
+   public static String getUpdateScriptMethodName(final JavaType entityType) {
+      return "update" + entityType.getSimpleTypeName() + "WithScript";
+   }
+
+   /**
+    * Adds to repository implementation public methods updating the document of an entity of given type in place, without
+    * fetching and reindexing the whole entity: a merge of partial fields, a single field update and a scripted
+    * update for counters and the like. Merges that change nothing are no-ops on server side, and scripts may
+    * skip the update by setting <code>ctx.op</code> to <code>"none"</code>. Entities routed on a custom field
+    * take the routing value along with the identifier.
+    * @param cidBuilder the builder holding the repository implementation members (required)
+    * @param entityType the type of entity being managed (required)
+    * @param entityValues the values of the entity annotation (required)
+    * @param repositoryValues the values of the repository annotation (required)
+    */
+   public static void addUpdateMethods(final ClassOrInterfaceTypeDetailsBuilder cidBuilder, final JavaType entityType,
+         final ElasticsearchEntityAnnotationValues entityValues, final RepositoryElasticsearchAnnotationValues repositoryValues) {
+      addClientField(cidBuilder);
+
+      final String entity = entityType.getFullyQualifiedTypeName();
+      final JavaType mapType = new JavaType("java.util.Map", 0, DataType.TYPE, null, Arrays.asList(JavaType.STRING, JavaType.OBJECT));
+      final String routing = entityValues.isRouted() ? ".setRouting(routing)" : "";
+      final String routingArgument = entityValues.isRouted() ? ", routing" : "";
+
+      InvocableMemberBodyBuilder bodyBuilder = new InvocableMemberBodyBuilder();
+      bodyBuilder.appendFormalLine("if (fields == null || fields.isEmpty()) {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("return;");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("}");
+      bodyBuilder.appendFormalLine("final " + DOCUMENT + " document = " + entity + ".class.getAnnotation(" + DOCUMENT + ".class);");
+      bodyBuilder.appendFormalLine(CLIENT_FIELD_NAME + ".prepareUpdate(" + getIndexOf(cidBuilder, entityType, entityValues, "id", entityValues.isRouted() ? "routing" : "null") + ", document.type(), id)" + routing);
+      bodyBuilder.appendFormalLine("      .setScript(\"" + MERGE_SCRIPT + "\").addScriptParam(\"partial\", fields)");
+      bodyBuilder.appendFormalLine("      .setRetryOnConflict(" + UPDATE_RETRIES_ON_CONFLICT + ").setRefresh(" 
+            + (entityValues.getRefreshMode() == RefreshMode.IMMEDIATE) + ").execute().actionGet();");
+      appendCacheEviction(cidBuilder, bodyBuilder, entityType, repositoryValues, "id");
+      addUpdateMethod(cidBuilder, entityValues, getUpdateMethodName(entityType), 
+            Arrays.asList(JavaType.STRING, mapType), Arrays.asList("id", "fields"), bodyBuilder);
+
+      bodyBuilder = new InvocableMemberBodyBuilder();
+      bodyBuilder.appendFormalLine(getUpdateMethodName(entityType) + "(id, java.util.Collections.singletonMap(field, value)" + routingArgument + ");");
+      addUpdateMethod(cidBuilder, entityValues, getUpdateFieldMethodName(entityType), 
+            Arrays.asList(JavaType.STRING, JavaType.STRING, JavaType.OBJECT), Arrays.asList("id", "field", "value"), bodyBuilder);
+
+      bodyBuilder = new InvocableMemberBodyBuilder();
+      bodyBuilder.appendFormalLine("final " + DOCUMENT + " document = " + entity + ".class.getAnnotation(" + DOCUMENT + ".class);");
+      bodyBuilder.appendFormalLine(CLIENT_FIELD_NAME + ".prepareUpdate(" + getIndexOf(cidBuilder, entityType, entityValues, "id", entityValues.isRouted() ? "routing" : "null") + ", document.type(), id)" + routing);
+      bodyBuilder.appendFormalLine("      .setScript(script).setScriptParams(params)");
+      bodyBuilder.appendFormalLine("      .setRetryOnConflict(" + UPDATE_RETRIES_ON_CONFLICT + ").setRefresh(" 
+            + (entityValues.getRefreshMode() == RefreshMode.IMMEDIATE) + ").execute().actionGet();");
+      appendCacheEviction(cidBuilder, bodyBuilder, entityType, repositoryValues, "id");
+      addUpdateMethod(cidBuilder, entityValues, getUpdateScriptMethodName(entityType), 
+            Arrays.asList(JavaType.STRING, JavaType.STRING, mapType), Arrays.asList("id", "script", "params"), bodyBuilder);
+   }
+
+   private static void addUpdateMethod(final ClassOrInterfaceTypeDetailsBuilder cidBuilder, final ElasticsearchEntityAnnotationValues entityValues,
+         final String methodName, final List<JavaType> types, final List<String> names, final InvocableMemberBodyBuilder bodyBuilder) {
+      final List<JavaType> parameterTypes = new ArrayList<JavaType>(types);
+      final List<JavaSymbolName> parameterNames = new ArrayList<JavaSymbolName>();
+      for (String name : names) {
+         parameterNames.add(new JavaSymbolName(name));
+      }
+      if (entityValues.isRouted()) {
+         parameterTypes.add(JavaType.STRING);
+         parameterNames.add(new JavaSymbolName("routing"));
+      }
+      cidBuilder.addMethod(new MethodMetadataBuilder(cidBuilder.getDeclaredByMetadataId(), Modifier.PUBLIC,
+            new JavaSymbolName(methodName), JavaType.VOID_PRIMITIVE, 
+            AnnotatedJavaType.convertFromJavaTypes(parameterTypes), parameterNames, bodyBuilder));
+   }
+
+   /**
+    * Adds to repository implementation a method updating the refresh interval of an index. This allows disabling
+    * refresh while bulk loading and restoring it afterwards.
+    * @param cidBuilder the builder holding the repository implementation members (required)
+    */
+   public static void addUpdateRefreshIntervalMethod(final ClassOrInterfaceTypeDetailsBuilder cidBuilder) {
+      addClientField(cidBuilder);
+
+      final InvocableMemberBodyBuilder bodyBuilder = new InvocableMemberBodyBuilder();
+      bodyBuilder.appendFormalLine(CLIENT_FIELD_NAME + ".admin().indices().prepareUpdateSettings(indexName)");
+      bodyBuilder.appendFormalLine("      .setSettings(org.elasticsearch.common.settings.ImmutableSettings.settingsBuilder()");
+      bodyBuilder.appendFormalLine("            .put(\"index.refresh_interval\", refreshInterval).build())");
+      bodyBuilder.appendFormalLine("      .execute().actionGet();");
+      cidBuilder.addMethod(new MethodMetadataBuilder(cidBuilder.getDeclaredByMetadataId(), Modifier.PRIVATE,
+            new JavaSymbolName(UPDATE_REFRESH_INTERVAL_METHOD_NAME), JavaType.VOID_PRIMITIVE, 
+            AnnotatedJavaType.convertFromJavaTypes(Arrays.asList(JavaType.STRING, JavaType.STRING)), 
+            Arrays.asList(new JavaSymbolName("indexName"), new JavaSymbolName("refreshInterval")), bodyBuilder));
+   }
+
+   /**
+    * Adds to repository implementation a method indexing entities of given type through chunked bulk requests. A chunk is sent
+    * as soon as it reaches the configured number of actions or size in bytes. When more than one chunk is
+    * needed, index refresh is disabled during the load and restored to entity refresh interval afterwards.
+    * Entities with an immediate refresh mode are made visible once the last chunk is sent. Versioned entities
+    * follow single save rules: their version is checked and updated, a conflict being reported as an 
+    * optimistic locking failure once the rest of its chunk has been indexed.
+    * @param cidBuilder the builder holding the repository implementation members (required)
+    * @param entityType the type of entity being managed (required)
+    * @param entityValues the values of the entity annotation (required)
+    * @param repositoryValues the values of the repository annotation (required)
+    */
+   public static void addBulkIndexMethod(final ClassOrInterfaceTypeDetailsBuilder cidBuilder, final JavaType entityType,
+         final ElasticsearchEntityAnnotationValues entityValues, final RepositoryElasticsearchAnnotationValues repositoryValues) {
+      addClientField(cidBuilder);
+      addMapperField(cidBuilder);
+      addBulkLimitFields(cidBuilder);
+      addExecuteBulkMethod(cidBuilder);
+      addUpdateRefreshIntervalMethod(cidBuilder);
+
+      final String entity = entityType.getFullyQualifiedTypeName();
+      final InvocableMemberBodyBuilder bodyBuilder = new InvocableMemberBodyBuilder();
+      bodyBuilder.appendFormalLine("final " + DOCUMENT + " document = " + entity + ".class.getAnnotation(" + DOCUMENT + ".class);");
+      bodyBuilder.appendFormalLine("final java.util.List<" + entity + "> pending = new java.util.ArrayList<" + entity + ">();");
+      bodyBuilder.appendFormalLine("final java.util.Iterator<" + entity + "> iterator = entities.iterator();");
+      bodyBuilder.appendFormalLine("org.elasticsearch.action.bulk.BulkRequestBuilder bulk = " + CLIENT_FIELD_NAME + ".prepareBulk();");
+      bodyBuilder.appendFormalLine("boolean refreshDisabled = false;");
+      bodyBuilder.appendFormalLine("try {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("while (iterator.hasNext()) {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("final " + entity + " entity = iterator.next();");
+      bodyBuilder.appendFormalLine("try {");
+      bodyBuilder.indent();
+      if (entityValues.isVersioned()) {
+         // Same optimistic locking as single saves: only documents still at entity version are overwritten.
+         bodyBuilder.appendFormalLine("final org.elasticsearch.action.index.IndexRequestBuilder request = " + CLIENT_FIELD_NAME 
+               + ".prepareIndex(" + getWriteIndex(cidBuilder, entityType, entityValues) + ", document.type(), entity.getId())");
+         bodyBuilder.appendFormalLine("      .setSource(" + MAPPER_FIELD_NAME + ".writeValueAsString(entity))" + getRouting(entityValues, "entity") + ";");
+         bodyBuilder.appendFormalLine("if (entity.getVersion() != null) {");
+         bodyBuilder.indent();
+         bodyBuilder.appendFormalLine("request.setVersion(entity.getVersion());");
+         bodyBuilder.indentRemove();
+         bodyBuilder.appendFormalLine("}");
+         bodyBuilder.appendFormalLine("bulk.add(request);");
+      } else {
+         bodyBuilder.appendFormalLine("bulk.add(" + CLIENT_FIELD_NAME + ".prepareIndex(" + getWriteIndex(cidBuilder, entityType, entityValues) + ", document.type(), entity.getId())");
+         bodyBuilder.appendFormalLine("      .setSource(" + MAPPER_FIELD_NAME + ".writeValueAsString(entity))" + getRouting(entityValues, "entity") + ");");
+      }
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("} catch (java.io.IOException ioe) {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("throw new IllegalStateException(\"Unable to serialize " + entityType.getSimpleTypeName() + " \" + entity.getId(), ioe);");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("}");
+      bodyBuilder.appendFormalLine("pending.add(entity);");
+      bodyBuilder.appendFormalLine("if (!iterator.hasNext() || bulk.numberOfActions() >= " + BULK_ACTIONS_FIELD_NAME 
+            + " || bulk.request().estimatedSizeInBytes() >= " + BULK_BYTES_FIELD_NAME + ") {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("// More than one chunk: this is a load, do not refresh until it is over.");
+      bodyBuilder.appendFormalLine("if (!refreshDisabled && iterator.hasNext()) {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine(UPDATE_REFRESH_INTERVAL_METHOD_NAME + "(" + getWriteIndex(cidBuilder, entityType, entityValues) + ", \"-1\");");
+      bodyBuilder.appendFormalLine("refreshDisabled = true;");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("}");
+      if (entityValues.isVersioned()) {
+         // Indexed entities get their new version even if others of the chunk conflicted.
+         bodyBuilder.appendFormalLine("final org.elasticsearch.action.bulk.BulkResponse response = bulk.execute().actionGet();");
+         bodyBuilder.appendFormalLine("final org.elasticsearch.action.bulk.BulkItemResponse[] items = response.getItems();");
+         bodyBuilder.appendFormalLine(entity + " conflicting = null;");
+         bodyBuilder.appendFormalLine("for (int i = 0; i < items.length; i++) {");
+         bodyBuilder.indent();
+         bodyBuilder.appendFormalLine("if (!items[i].isFailed()) {");
+         bodyBuilder.indent();
+         bodyBuilder.appendFormalLine("pending.get(i).setId(items[i].getId());");
+         bodyBuilder.appendFormalLine("pending.get(i).setVersion(items[i].getVersion());");
+         bodyBuilder.indentRemove();
+         bodyBuilder.appendFormalLine("} else if (conflicting == null && pending.get(i).getVersion() != null) {");
+         bodyBuilder.indent();
+         // Bulk item failures of this client only carry a message, no status nor cause: a conflict is
+         // told by the version the failed document is currently indexed at.
+         bodyBuilder.appendFormalLine("final org.elasticsearch.action.get.GetResponse current = " + CLIENT_FIELD_NAME 
+               + ".prepareGet(items[i].getIndex(), items[i].getType(), items[i].getId())" + getRouting(entityValues, "pending.get(i)") 
+               + ".setFields().execute().actionGet();");
+         bodyBuilder.appendFormalLine("if (!current.isExists() || current.getVersion() != pending.get(i).getVersion().longValue()) {");
+         bodyBuilder.indent();
+         bodyBuilder.appendFormalLine("conflicting = pending.get(i);");
+         bodyBuilder.indentRemove();
+         bodyBuilder.appendFormalLine("}");
+         bodyBuilder.indentRemove();
+         bodyBuilder.appendFormalLine("}");
+         bodyBuilder.indentRemove();
+         bodyBuilder.appendFormalLine("}");
+         bodyBuilder.appendFormalLine("if (conflicting != null) {");
+         bodyBuilder.indent();
+         bodyBuilder.appendFormalLine("throw new " + OPTIMISTIC_LOCKING_FAILURE + "(\"" + entityType.getSimpleTypeName() 
+               + " \" + conflicting.getId() + \" has been modified since version \" + conflicting.getVersion());");
+         bodyBuilder.indentRemove();
+         bodyBuilder.appendFormalLine("}");
+         bodyBuilder.appendFormalLine("if (response.hasFailures()) {");
+         bodyBuilder.indent();
+         bodyBuilder.appendFormalLine("throw new IllegalStateException(response.buildFailureMessage());");
+         bodyBuilder.indentRemove();
+         bodyBuilder.appendFormalLine("}");
+      } else {
+         bodyBuilder.appendFormalLine("final org.elasticsearch.action.bulk.BulkItemResponse[] items = " + EXECUTE_BULK_METHOD_NAME + "(bulk).getItems();");
+         bodyBuilder.appendFormalLine("for (int i = 0; i < items.length; i++) {");
+         bodyBuilder.indent();
+         bodyBuilder.appendFormalLine("pending.get(i).setId(items[i].getId());");
+         bodyBuilder.indentRemove();
+         bodyBuilder.appendFormalLine("}");
+      }
+      bodyBuilder.appendFormalLine("pending.clear();");
+      bodyBuilder.appendFormalLine("bulk = " + CLIENT_FIELD_NAME + ".prepareBulk();");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("}");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("}");
+      if (entityValues.getRefreshMode() == RefreshMode.IMMEDIATE) {
+         // Chunks are not refreshed one by one, entities are made visible at once when the last one is sent.
+         bodyBuilder.appendFormalLine(CLIENT_FIELD_NAME + ".admin().indices().prepareRefresh(" 
+               + getWriteIndex(cidBuilder, entityType, entityValues) + ").execute().actionGet();");
+      }
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("} finally {");
+      bodyBuilder.indent();
+      appendCacheEviction(cidBuilder, bodyBuilder, entityType, repositoryValues, "null");
+      bodyBuilder.appendFormalLine("if (refreshDisabled) {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine(UPDATE_REFRESH_INTERVAL_METHOD_NAME + "(" + getWriteIndex(cidBuilder, entityType, entityValues) + ", document.refreshInterval());");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("}");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("}");
+      cidBuilder.addMethod(new MethodMetadataBuilder(cidBuilder.getDeclaredByMetadataId(), Modifier.PUBLIC,
+            new JavaSymbolName(getBulkIndexMethodName(entityType)), JavaType.VOID_PRIMITIVE, 
+            AnnotatedJavaType.convertFromJavaTypes(Arrays.asList(getIterableOf(entityType))), 
+            Arrays.asList(new JavaSymbolName("entities")), bodyBuilder));
+   }
+
+   /**
+    * Adds to repository implementation a method deleting entities of given type through chunked bulk requests. A chunk is sent
+    * as soon as it reaches the configured number of actions or size in bytes. No refresh is requested.
+    * @param cidBuilder the builder holding the repository implementation members (required)
+    * @param entityType the type of entity being managed (required)
+    * @param entityValues the values of the entity annotation (required)
+    * @param repositoryValues the values of the repository annotation (required)
+    */
+   public static void addBulkDeleteMethod(final ClassOrInterfaceTypeDetailsBuilder cidBuilder, final JavaType entityType,
+         final ElasticsearchEntityAnnotationValues entityValues, final RepositoryElasticsearchAnnotationValues repositoryValues) {
+      addClientField(cidBuilder);
+      addBulkLimitFields(cidBuilder);
+      addExecuteBulkMethod(cidBuilder);
+
+      final String entity = entityType.getFullyQualifiedTypeName();
+      final InvocableMemberBodyBuilder bodyBuilder = new InvocableMemberBodyBuilder();
+      bodyBuilder.appendFormalLine("final " + DOCUMENT + " document = " + entity + ".class.getAnnotation(" + DOCUMENT + ".class);");
+      bodyBuilder.appendFormalLine("final java.util.Iterator<" + entity + "> iterator = entities.iterator();");
+      bodyBuilder.appendFormalLine("org.elasticsearch.action.bulk.BulkRequestBuilder bulk = " + CLIENT_FIELD_NAME + ".prepareBulk();");
+      bodyBuilder.appendFormalLine("while (iterator.hasNext()) {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("final " + entity + " entity = iterator.next();");
+      bodyBuilder.appendFormalLine("bulk.add(" + CLIENT_FIELD_NAME + ".prepareDelete(" + getIndexOf(cidBuilder, entityType, entityValues, "entity.getId()", getRoutingValue(entityValues, "entity")) + ", document.type(), entity.getId())" 
+            + getRouting(entityValues, "entity") + ");");
+      bodyBuilder.appendFormalLine("if (!iterator.hasNext() || bulk.numberOfActions() >= " + BULK_ACTIONS_FIELD_NAME 
+            + " || bulk.request().estimatedSizeInBytes() >= " + BULK_BYTES_FIELD_NAME + ") {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine(EXECUTE_BULK_METHOD_NAME + "(bulk);");
+      bodyBuilder.appendFormalLine("bulk = " + CLIENT_FIELD_NAME + ".prepareBulk();");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("}");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("}");
+      appendCacheEviction(cidBuilder, bodyBuilder, entityType, repositoryValues, "null");
+      cidBuilder.addMethod(new MethodMetadataBuilder(cidBuilder.getDeclaredByMetadataId(), Modifier.PUBLIC,
+            new JavaSymbolName(getBulkDeleteMethodName(entityType)), JavaType.VOID_PRIMITIVE, 
+            AnnotatedJavaType.convertFromJavaTypes(Arrays.asList(getIterableOf(entityType))), 
+            Arrays.asList(new JavaSymbolName("entities")), bodyBuilder));
+   }
+
+   /**
+    * Adds to repository implementation a method finding an entity of given type by identifier. For entities routed on a custom
+    * field or rolling, the routing value or index is unknown here so the lookup is a search on all shards; callers knowing the
+    * routing value should prefer the method added by {@link #addGetRoutedMethod}. Entities are looked up
+    * in the repository cache first if repository asks for caching.
+    * @param cidBuilder the builder holding the repository implementation members (required)
+    * @param entityType the type of entity being managed (required)
+    * @param entityValues the values of the entity annotation (required)
+    * @param repositoryValues the values of the repository annotation (required)
+    */
+   public static void addGetMethod(final ClassOrInterfaceTypeDetailsBuilder cidBuilder, final JavaType entityType,
+         final ElasticsearchEntityAnnotationValues entityValues, final RepositoryElasticsearchAnnotationValues repositoryValues) {
+      // When caching, the actual lookup is made by a loader the get method delegates to on cache misses.
+      final String methodName = repositoryValues.isCached() ? "load" + entityType.getSimpleTypeName() : getGetMethodName(entityType);
+      if (repositoryValues.isCached()) {
+         addCacheMembers(cidBuilder, entityType, repositoryValues);
+         addCacheCopyMethods(cidBuilder, entityType, entityValues);
+         final String entity = entityType.getFullyQualifiedTypeName();
+         final InvocableMemberBodyBuilder bodyBuilder = new InvocableMemberBodyBuilder();
+         bodyBuilder.appendFormalLine("final String cacheKey = \"" + CACHE_GET_KEY_PREFIX + "\" + id;");
+         bodyBuilder.appendFormalLine("synchronized (" + getCacheFieldName(entityType) + ") {");
+         bodyBuilder.indent();
+         bodyBuilder.appendFormalLine("if (" + getCacheLookupMethodName(entityType) + "(cacheKey)) {");
+         bodyBuilder.indent();
+         bodyBuilder.appendFormalLine("return " + getCacheCopyMethodName(entityType) + "(" + getCachedEntitiesFieldName(entityType) + ".get(cacheKey));");
+         bodyBuilder.indentRemove();
+         bodyBuilder.appendFormalLine("}");
+         bodyBuilder.indentRemove();
+         bodyBuilder.appendFormalLine("}");
+         bodyBuilder.appendFormalLine("final " + entity + " entity = " + methodName + "(id);");
+         bodyBuilder.appendFormalLine(getCacheStoreMethodName(entityType) + "(cacheKey, " + getCacheCopyMethodName(entityType) + "(entity));");
+         bodyBuilder.appendFormalLine("return entity;");
+         cidBuilder.addMethod(new MethodMetadataBuilder(cidBuilder.getDeclaredByMetadataId(), Modifier.PUBLIC,
+               new JavaSymbolName(getGetMethodName(entityType)), entityType, 
+               AnnotatedJavaType.convertFromJavaTypes(Arrays.asList(JavaType.STRING)), 
+               Arrays.asList(new JavaSymbolName("id")), bodyBuilder));
+      }
+      if (entityValues.isSearchedById()) {
+         addClientField(cidBuilder);
+         addMapHitMethod(cidBuilder, entityType, entityValues);
+         
+         final String entity = entityType.getFullyQualifiedTypeName();
+         final InvocableMemberBodyBuilder bodyBuilder = new InvocableMemberBodyBuilder();
+         bodyBuilder.appendFormalLine("final " + DOCUMENT + " document = " + entity + ".class.getAnnotation(" + DOCUMENT + ".class);");
+         bodyBuilder.appendFormalLine("final org.elasticsearch.search.SearchHits hits = " + CLIENT_FIELD_NAME 
+               + ".prepareSearch(" + getReadIndex(entityValues) + ").setTypes(document.type())");
+         bodyBuilder.appendFormalLine("      .setQuery(org.elasticsearch.index.query.QueryBuilders.idsQuery(document.type()).ids(id))");
+         bodyBuilder.appendFormalLine("      .setSize(1)" + getVersionFlag(entityValues) + ".execute().actionGet().getHits();");
+         bodyBuilder.appendFormalLine("return hits.getHits().length == 0 ? null : " + getMapHitMethodName(entityType) + "(hits.getAt(0));");
+         cidBuilder.addMethod(new MethodMetadataBuilder(cidBuilder.getDeclaredByMetadataId(), getGetModifier(entityType, methodName),
+               new JavaSymbolName(methodName), entityType, 
+               AnnotatedJavaType.convertFromJavaTypes(Arrays.asList(JavaType.STRING)), 
+               Arrays.asList(new JavaSymbolName("id")), bodyBuilder));
+      } else {
+         addGetRoutedMethod(cidBuilder, entityType, entityValues, false, methodName);
+      }
+   }
+
+   /**
+    * Adds to repository implementation a method getting an entity of given type from its identifier, and from its routing
+    * value if <code>routed</code>. This is a single shard request.
+    * @param cidBuilder the builder holding the repository implementation members (required)
+    * @param entityType the type of entity being managed (required)
+    * @param entityValues the values of the entity annotation (required)
+    * @param routed whether the method takes a routing parameter
+    */
+   public static void addGetRoutedMethod(final ClassOrInterfaceTypeDetailsBuilder cidBuilder, final JavaType entityType, 
+         final ElasticsearchEntityAnnotationValues entityValues, final boolean routed) {
+      addGetRoutedMethod(cidBuilder, entityType, entityValues, routed, getGetMethodName(entityType));
+   }
+
+   private static void addGetRoutedMethod(final ClassOrInterfaceTypeDetailsBuilder cidBuilder, final JavaType entityType, 
+         final ElasticsearchEntityAnnotationValues entityValues, final boolean routed, final String methodName) {
+      addClientField(cidBuilder);
+      addMapperField(cidBuilder);
+
+      final String entity = entityType.getFullyQualifiedTypeName();
+      final InvocableMemberBodyBuilder bodyBuilder = new InvocableMemberBodyBuilder();
+      bodyBuilder.appendFormalLine("final " + DOCUMENT + " document = " + entity + ".class.getAnnotation(" + DOCUMENT + ".class);");
+      bodyBuilder.appendFormalLine("final org.elasticsearch.action.get.GetResponse response = " + CLIENT_FIELD_NAME 
+            + ".prepareGet(" + getIndexOf(cidBuilder, entityType, entityValues, "id", routed ? "routing" : "null") + ", document.type(), id)" + (routed ? ".setRouting(routing)" : "") 
+            + ".execute().actionGet();");
+      bodyBuilder.appendFormalLine("if (!response.isExists()) {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("return null;");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("}");
+      bodyBuilder.appendFormalLine("try {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("final " + entity + " entity = " + MAPPER_FIELD_NAME + ".readValue(response.getSourceAsString(), " + entity + ".class);");
+      bodyBuilder.appendFormalLine("entity.setId(response.getId());");
+      if (entityValues.isVersioned()) {
+         bodyBuilder.appendFormalLine("entity.setVersion(response.getVersion());");
+      }
+      bodyBuilder.appendFormalLine("return entity;");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("} catch (java.io.IOException ioe) {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("throw new IllegalStateException(\"Unable to map " + entityType.getSimpleTypeName() + " document \" + id, ioe);");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("}");
+      
+      final List<JavaType> parameterTypes = new ArrayList<JavaType>(Arrays.asList(JavaType.STRING));
+      final List<JavaSymbolName> parameterNames = new ArrayList<JavaSymbolName>(Arrays.asList(new JavaSymbolName("id")));
+      if (routed) {
+         parameterTypes.add(JavaType.STRING);
+         parameterNames.add(new JavaSymbolName("routing"));
+      }
+      cidBuilder.addMethod(new MethodMetadataBuilder(cidBuilder.getDeclaredByMetadataId(), getGetModifier(entityType, methodName),
+            new JavaSymbolName(methodName), entityType, 
+            AnnotatedJavaType.convertFromJavaTypes(parameterTypes), parameterNames, bodyBuilder));
+   }
+
+   private static int getGetModifier(final JavaType entityType, final String methodName) {
+      // Loaders behind the cache are not part of the repository contract.
+      return methodName.equals(getGetMethodName(entityType)) ? Modifier.PUBLIC : Modifier.PRIVATE;
+   }
+
+   /**
+    * Adds to repository implementation a method getting entities of given type from their identifiers in chunks of 
+    * {@link #MULTI_GET_CHUNK_SIZE}, each chunk being a single round trip. Entities routed on a custom field
+    * or rolling are fetched through an ids query as their routing values or indices are unknown here. Missing entities are skipped.
+    * @param cidBuilder the builder holding the repository implementation members (required)
+    * @param entityType the type of entity being managed (required)
+    * @param entityValues the values of the entity annotation (required)
+    */
+   public static void addMultiGetMethod(final ClassOrInterfaceTypeDetailsBuilder cidBuilder, final JavaType entityType,
+         final ElasticsearchEntityAnnotationValues entityValues) {
+      addClientField(cidBuilder);
+      addMapperField(cidBuilder);
+      if (entityValues.isSearchedById()) {
+         addMapHitMethod(cidBuilder, entityType, entityValues);
+      }
+
+      final String entity = entityType.getFullyQualifiedTypeName();
+      final InvocableMemberBodyBuilder bodyBuilder = new InvocableMemberBodyBuilder();
+      bodyBuilder.appendFormalLine("final " + DOCUMENT + " document = " + entity + ".class.getAnnotation(" + DOCUMENT + ".class);");
+      bodyBuilder.appendFormalLine("final java.util.List<" + entity + "> entities = new java.util.ArrayList<" + entity + ">();");
+      bodyBuilder.appendFormalLine("final java.util.List<String> chunk = new java.util.ArrayList<String>(" + MULTI_GET_CHUNK_SIZE + ");");
+      bodyBuilder.appendFormalLine("final java.util.Iterator<String> iterator = ids.iterator();");
+      bodyBuilder.appendFormalLine("while (iterator.hasNext()) {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("chunk.add(iterator.next());");
+      bodyBuilder.appendFormalLine("if (chunk.size() < " + MULTI_GET_CHUNK_SIZE + " && iterator.hasNext()) {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("continue;");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("}");
+      if (entityValues.isSearchedById()) {
+         bodyBuilder.appendFormalLine("entities.addAll(" + getMapHitsMethodName(entityType) + "(" + CLIENT_FIELD_NAME 
+               + ".prepareSearch(" + getReadIndex(entityValues) + ").setTypes(document.type())");
+         bodyBuilder.appendFormalLine("      .setQuery(org.elasticsearch.index.query.QueryBuilders.idsQuery(document.type())");
+         bodyBuilder.appendFormalLine("            .ids(chunk.toArray(new String[chunk.size()])))");
+         bodyBuilder.appendFormalLine("      .setSize(chunk.size())" + getVersionFlag(entityValues) + ".execute().actionGet().getHits()));");
+      } else {
+         bodyBuilder.appendFormalLine("final org.elasticsearch.action.get.MultiGetRequestBuilder request = " + CLIENT_FIELD_NAME + ".prepareMultiGet();");
+         bodyBuilder.appendFormalLine("for (String id : chunk) {");
+         bodyBuilder.indent();
+         bodyBuilder.appendFormalLine("request.add(document.indexName(), document.type(), id);");
+         bodyBuilder.indentRemove();
+         bodyBuilder.appendFormalLine("}");
+         bodyBuilder.appendFormalLine("for (org.elasticsearch.action.get.MultiGetItemResponse item : request.execute().actionGet()) {");
+         bodyBuilder.indent();
+         bodyBuilder.appendFormalLine("if (item.isFailed() || !item.getResponse().isExists()) {");
+         bodyBuilder.indent();
+         bodyBuilder.appendFormalLine("continue;");
+         bodyBuilder.indentRemove();
+         bodyBuilder.appendFormalLine("}");
+         bodyBuilder.appendFormalLine("try {");
+         bodyBuilder.indent();
+         bodyBuilder.appendFormalLine("final " + entity + " entity = " + MAPPER_FIELD_NAME + ".readValue(item.getResponse().getSourceAsString(), " + entity + ".class);");
+         bodyBuilder.appendFormalLine("entity.setId(item.getId());");
+         if (entityValues.isVersioned()) {
+            bodyBuilder.appendFormalLine("entity.setVersion(item.getResponse().getVersion());");
+         }
+         bodyBuilder.appendFormalLine("entities.add(entity);");
+         bodyBuilder.indentRemove();
+         bodyBuilder.appendFormalLine("} catch (java.io.IOException ioe) {");
+         bodyBuilder.indent();
+         bodyBuilder.appendFormalLine("throw new IllegalStateException(\"Unable to map " + entityType.getSimpleTypeName() + " document \" + item.getId(), ioe);");
+         bodyBuilder.indentRemove();
+         bodyBuilder.appendFormalLine("}");
+         bodyBuilder.indentRemove();
+         bodyBuilder.appendFormalLine("}");
+      }
+      bodyBuilder.appendFormalLine("chunk.clear();");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("}");
+      bodyBuilder.appendFormalLine("return entities;");
+      cidBuilder.addMethod(new MethodMetadataBuilder(cidBuilder.getDeclaredByMetadataId(), Modifier.PUBLIC,
+            new JavaSymbolName(getMultiGetMethodName(entityType)), JavaType.listOf(entityType), 
+            AnnotatedJavaType.convertFromJavaTypes(Arrays.asList(getIterableOf(JavaType.STRING))), 
+            Arrays.asList(new JavaSymbolName("ids")), bodyBuilder));
+   }
+
+   /**
+    * Adds to repository implementation a method deleting a single entity of given type. The index is refreshed
+    * afterwards only if entity refresh mode asks for it.
+    * @param cidBuilder the builder holding the repository implementation members (required)
+    * @param entityType the type of entity being managed (required)
+    * @param entityValues the values of the entity annotation (required)
+    * @param repositoryValues the values of the repository annotation (required)
+    */
+   public static void addDeleteMethod(final ClassOrInterfaceTypeDetailsBuilder cidBuilder, final JavaType entityType,
+         final ElasticsearchEntityAnnotationValues entityValues, final RepositoryElasticsearchAnnotationValues repositoryValues) {
+      addClientField(cidBuilder);
+
+      final String entity = entityType.getFullyQualifiedTypeName();
+      final JavaSymbolName parameterName = JavaSymbolName.getReservedWordSafeName(entityType);
+      final InvocableMemberBodyBuilder bodyBuilder = new InvocableMemberBodyBuilder();
+      bodyBuilder.appendFormalLine("final " + DOCUMENT + " document = " + entity + ".class.getAnnotation(" + DOCUMENT + ".class);");
+      bodyBuilder.appendFormalLine(CLIENT_FIELD_NAME + ".prepareDelete(" + getIndexOf(cidBuilder, entityType, entityValues, parameterName + ".getId()", 
+            getRoutingValue(entityValues, parameterName.getSymbolName())) + ", document.type(), " + parameterName + ".getId())" 
+            + getRouting(entityValues, parameterName.getSymbolName()));
+      bodyBuilder.appendFormalLine("      .setRefresh(" + (entityValues.getRefreshMode() == RefreshMode.IMMEDIATE) + ").execute().actionGet();");
+      appendCacheEviction(cidBuilder, bodyBuilder, entityType, repositoryValues, parameterName + ".getId()");
+      cidBuilder.addMethod(new MethodMetadataBuilder(cidBuilder.getDeclaredByMetadataId(), Modifier.PUBLIC,
+            new JavaSymbolName(getDeleteMethodName(entityType)), JavaType.VOID_PRIMITIVE, 
+            AnnotatedJavaType.convertFromJavaTypes(Arrays.asList(entityType)), 
+            Arrays.asList(parameterName), bodyBuilder));
+   }
+
+   /**
+    * Returns the name of the asynchronous variant of a support method.
+    * @param supportMethodName the name of the blocking support method (required)
+    * @return a non-blank method name
+    */
+   public static String getAsyncMethodName(final String supportMethodName) {
+      return supportMethodName + "Async";
+   }
+
+   /**
+    * Adds to repository implementation a public method getting an entity of given type from its identifier without blocking. 
+    * The returned future holds <code>null</code> if no such entity exists.
+    * @param cidBuilder the builder holding the repository implementation members (required)
+    * @param entityType the type of entity being managed (required)
+    * @param entityValues the values of the entity annotation (required)
+    */
+   public static void addGetAsyncMethod(final ClassOrInterfaceTypeDetailsBuilder cidBuilder, final JavaType entityType,
+         final ElasticsearchEntityAnnotationValues entityValues) {
+      addClientField(cidBuilder);
+      addMapperField(cidBuilder);
+
+      final String entity = entityType.getFullyQualifiedTypeName();
+      final InvocableMemberBodyBuilder bodyBuilder = new InvocableMemberBodyBuilder();
+      bodyBuilder.appendFormalLine("final " + DOCUMENT + " document = " + entity + ".class.getAnnotation(" + DOCUMENT + ".class);");
+      if (entityValues.isSearchedById()) {
+         // Routing value or index is unknown here so we have to search all shards.
+         addMapHitMethod(cidBuilder, entityType, entityValues);
+         appendFutureStart(bodyBuilder, entity, SEARCH_RESPONSE);
+         bodyBuilder.appendFormalLine("return response.getHits().getHits().length == 0 ? null : " 
+               + getMapHitMethodName(entityType) + "(response.getHits().getAt(0));");
+         appendFutureEnd(bodyBuilder, entity, SEARCH_RESPONSE);
+         bodyBuilder.appendFormalLine(CLIENT_FIELD_NAME + ".prepareSearch(" + getReadIndex(entityValues) + ").setTypes(document.type())");
+         bodyBuilder.appendFormalLine("      .setQuery(org.elasticsearch.index.query.QueryBuilders.idsQuery(document.type()).ids(id))");
+         bodyBuilder.appendFormalLine("      .setSize(1)" + getVersionFlag(entityValues) + ".execute(future);");
+      } else {
+         appendFutureStart(bodyBuilder, entity, GET_RESPONSE);
+         bodyBuilder.appendFormalLine("if (!response.isExists()) {");
+         bodyBuilder.indent();
+         bodyBuilder.appendFormalLine("return null;");
+         bodyBuilder.indentRemove();
+         bodyBuilder.appendFormalLine("}");
+         bodyBuilder.appendFormalLine("try {");
+         bodyBuilder.indent();
+         bodyBuilder.appendFormalLine("final " + entity + " entity = " + MAPPER_FIELD_NAME + ".readValue(response.getSourceAsString(), " + entity + ".class);");
+         bodyBuilder.appendFormalLine("entity.setId(response.getId());");
+         if (entityValues.isVersioned()) {
+            bodyBuilder.appendFormalLine("entity.setVersion(response.getVersion());");
+         }
+         bodyBuilder.appendFormalLine("return entity;");
+         bodyBuilder.indentRemove();
+         bodyBuilder.appendFormalLine("} catch (java.io.IOException ioe) {");
+         bodyBuilder.indent();
+         bodyBuilder.appendFormalLine("throw new IllegalStateException(\"Unable to map " + entityType.getSimpleTypeName() + " document \" + response.getId(), ioe);");
+         bodyBuilder.indentRemove();
+         bodyBuilder.appendFormalLine("}");
+         appendFutureEnd(bodyBuilder, entity, GET_RESPONSE);
+         bodyBuilder.appendFormalLine(CLIENT_FIELD_NAME + ".prepareGet(document.indexName(), document.type(), id).execute(future);");
+      }
+      bodyBuilder.appendFormalLine("return future;");
+      cidBuilder.addMethod(new MethodMetadataBuilder(cidBuilder.getDeclaredByMetadataId(), Modifier.PUBLIC,
+            new JavaSymbolName(getAsyncMethodName(getGetMethodName(entityType))), getFutureOf(entityType), 
+            AnnotatedJavaType.convertFromJavaTypes(Arrays.asList(JavaType.STRING)), 
+            Arrays.asList(new JavaSymbolName("id")), bodyBuilder));
+   }
+
+   /**
+    * Adds to repository implementation a public method indexing a single entity of given type without blocking. The returned 
+    * future holds the entity once indexed, with its identifier set. Versioned entities are checked and updated
+    * as with blocking saves, the future failing with an optimistic locking failure on conflict.
+    * @param cidBuilder the builder holding the repository implementation members (required)
+    * @param entityType the type of entity being managed (required)
+    * @param entityValues the values of the entity annotation (required)
+    * @param repositoryValues the values of the repository annotation (required)
+    */
+   public static void addIndexAsyncMethod(final ClassOrInterfaceTypeDetailsBuilder cidBuilder, final JavaType entityType,
+         final ElasticsearchEntityAnnotationValues entityValues, final RepositoryElasticsearchAnnotationValues repositoryValues) {
+      addClientField(cidBuilder);
+      addMapperField(cidBuilder);
+
+      final String entity = entityType.getFullyQualifiedTypeName();
+      final JavaSymbolName parameterName = JavaSymbolName.getReservedWordSafeName(entityType);
+      final InvocableMemberBodyBuilder bodyBuilder = new InvocableMemberBodyBuilder();
+      bodyBuilder.appendFormalLine("final " + DOCUMENT + " document = " + entity + ".class.getAnnotation(" + DOCUMENT + ".class);");
+      bodyBuilder.appendFormalLine("final String source;");
+      bodyBuilder.appendFormalLine("try {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("source = " + MAPPER_FIELD_NAME + ".writeValueAsString(" + parameterName + ");");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("} catch (java.io.IOException ioe) {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("throw new IllegalStateException(\"Unable to serialize " + entityType.getSimpleTypeName() + " \" + " 
+            + parameterName + ".getId(), ioe);");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("}");
+      bodyBuilder.appendFormalLine("final " + entity + " indexed = " + parameterName + ";");
+      appendFutureStart(bodyBuilder, entity, INDEX_RESPONSE);
+      bodyBuilder.appendFormalLine("indexed.setId(response.getId());");
+      if (entityValues.isVersioned()) {
+         bodyBuilder.appendFormalLine("indexed.setVersion(response.getVersion());");
+      }
+      appendCacheEviction(cidBuilder, bodyBuilder, entityType, repositoryValues, "indexed.getId()");
+      bodyBuilder.appendFormalLine("return indexed;");
+      appendFutureEnd(bodyBuilder, entity, INDEX_RESPONSE, entityValues.isVersioned() ? entityType : null);
+      if (entityValues.isVersioned()) {
+         bodyBuilder.appendFormalLine("final org.elasticsearch.action.index.IndexRequestBuilder request = " + CLIENT_FIELD_NAME 
+               + ".prepareIndex(" + getWriteIndex(cidBuilder, entityType, entityValues) + ", document.type(), " + parameterName + ".getId())");
+         bodyBuilder.appendFormalLine("      .setSource(source)" + getRouting(entityValues, parameterName.getSymbolName()));
+         bodyBuilder.appendFormalLine("      .setRefresh(" + (entityValues.getRefreshMode() == RefreshMode.IMMEDIATE) + ");");
+         bodyBuilder.appendFormalLine("if (" + parameterName + ".getVersion() != null) {");
+         bodyBuilder.indent();
+         bodyBuilder.appendFormalLine("request.setVersion(" + parameterName + ".getVersion());");
+         bodyBuilder.indentRemove();
+         bodyBuilder.appendFormalLine("}");
+         bodyBuilder.appendFormalLine("request.execute(future);");
+      } else {
+         bodyBuilder.appendFormalLine(CLIENT_FIELD_NAME + ".prepareIndex(" + getWriteIndex(cidBuilder, entityType, entityValues) + ", document.type(), " + parameterName + ".getId())");
+         bodyBuilder.appendFormalLine("      .setSource(source)" + getRouting(entityValues, parameterName.getSymbolName()));
+         bodyBuilder.appendFormalLine("      .setRefresh(" + (entityValues.getRefreshMode() == RefreshMode.IMMEDIATE) + ").execute(future);");
+      }
+      bodyBuilder.appendFormalLine("return future;");
+      cidBuilder.addMethod(new MethodMetadataBuilder(cidBuilder.getDeclaredByMetadataId(), Modifier.PUBLIC,
+            new JavaSymbolName(getAsyncMethodName(getIndexMethodName(entityType))), getFutureOf(entityType), 
+            AnnotatedJavaType.convertFromJavaTypes(Arrays.asList(entityType)), 
+            Arrays.asList(parameterName), bodyBuilder));
+   }
+
+   /**
+    * Adds to repository implementation a public method deleting a single entity of given type without blocking.
+    * @param cidBuilder the builder holding the repository implementation members (required)
+    * @param entityType the type of entity being managed (required)
+    * @param entityValues the values of the entity annotation (required)
+    * @param repositoryValues the values of the repository annotation (required)
+    */
+   public static void addDeleteAsyncMethod(final ClassOrInterfaceTypeDetailsBuilder cidBuilder, final JavaType entityType,
+         final ElasticsearchEntityAnnotationValues entityValues, final RepositoryElasticsearchAnnotationValues repositoryValues) {
+      addClientField(cidBuilder);
+
+      final String entity = entityType.getFullyQualifiedTypeName();
+      final JavaSymbolName parameterName = JavaSymbolName.getReservedWordSafeName(entityType);
+      final InvocableMemberBodyBuilder bodyBuilder = new InvocableMemberBodyBuilder();
+      bodyBuilder.appendFormalLine("final " + DOCUMENT + " document = " + entity + ".class.getAnnotation(" + DOCUMENT + ".class);");
+      appendFutureStart(bodyBuilder, VOID.getFullyQualifiedTypeName(), DELETE_RESPONSE);
+      appendCacheEviction(cidBuilder, bodyBuilder, entityType, repositoryValues, "response.getId()");
+      bodyBuilder.appendFormalLine("return null;");
+      appendFutureEnd(bodyBuilder, VOID.getFullyQualifiedTypeName(), DELETE_RESPONSE);
+      bodyBuilder.appendFormalLine(CLIENT_FIELD_NAME + ".prepareDelete(" + getIndexOf(cidBuilder, entityType, entityValues, parameterName + ".getId()", 
+            getRoutingValue(entityValues, parameterName.getSymbolName())) + ", document.type(), " + parameterName + ".getId())" 
+            + getRouting(entityValues, parameterName.getSymbolName()));
+      bodyBuilder.appendFormalLine("      .setRefresh(" + (entityValues.getRefreshMode() == RefreshMode.IMMEDIATE) + ").execute(future);");
+      bodyBuilder.appendFormalLine("return future;");
+      cidBuilder.addMethod(new MethodMetadataBuilder(cidBuilder.getDeclaredByMetadataId(), Modifier.PUBLIC,
+            new JavaSymbolName(getAsyncMethodName(getDeleteMethodName(entityType))), getFutureOf(VOID), 
+            AnnotatedJavaType.convertFromJavaTypes(Arrays.asList(entityType)), 
+            Arrays.asList(parameterName), bodyBuilder));
+   }
+
+   /**
+    * Adds to repository implementation a public method counting entities of given type without blocking. The count cache
+    * of the blocking variant is bypassed.
+    * @param cidBuilder the builder holding the repository implementation members (required)
+    * @param entityType the type of entity being managed (required)
+    * @param entityValues the values of the entity annotation (required)
+    */
+   public static void addCountAsyncMethod(final ClassOrInterfaceTypeDetailsBuilder cidBuilder, final JavaType entityType,
+         final ElasticsearchEntityAnnotationValues entityValues) {
+      addClientField(cidBuilder);
+
+      final String entity = entityType.getFullyQualifiedTypeName();
+      final InvocableMemberBodyBuilder bodyBuilder = new InvocableMemberBodyBuilder();
+      bodyBuilder.appendFormalLine("final " + DOCUMENT + " document = " + entity + ".class.getAnnotation(" + DOCUMENT + ".class);");
+      appendFutureStart(bodyBuilder, JavaType.LONG_OBJECT.getFullyQualifiedTypeName(), COUNT_RESPONSE);
+      bodyBuilder.appendFormalLine("return response.getCount();");
+      appendFutureEnd(bodyBuilder, JavaType.LONG_OBJECT.getFullyQualifiedTypeName(), COUNT_RESPONSE);
+      bodyBuilder.appendFormalLine(CLIENT_FIELD_NAME + ".prepareCount(" + getReadIndex(entityValues) + ").setTypes(document.type()).execute(future);");
+      bodyBuilder.appendFormalLine("return future;");
+      cidBuilder.addMethod(new MethodMetadataBuilder(cidBuilder.getDeclaredByMetadataId(), Modifier.PUBLIC,
+            new JavaSymbolName(getAsyncMethodName(getCountMethodName(entityType))), getFutureOf(JavaType.LONG_OBJECT), 
+            new ArrayList<AnnotatedJavaType>(), new ArrayList<JavaSymbolName>(), bodyBuilder));
+   }
+
+   /**
+    * Opens the declaration of a <code>future</code> local variable that is completed by the listener of an 
+    * Elasticsearch request. Caller then appends the body converting <code>response</code> into the result.
+    * @param bodyBuilder the builder of method body (required)
+    * @param resultType the fully qualified type of future result (required)
+    * @param responseType the fully qualified type of Elasticsearch response (required)
+    */
+   private static void appendFutureStart(final InvocableMemberBodyBuilder bodyBuilder, final String resultType, 
+         final String responseType) {
+      final String futureType = ADAPTER_ACTION_FUTURE + "<" + resultType + ", " + responseType + ">";
+      bodyBuilder.appendFormalLine("final " + futureType + " future = new " + futureType + "() {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("protected " + resultType + " convert(" + responseType + " response) {");
+      bodyBuilder.indent();
+   }
+
+   /**
+    * Closes the declaration opened by {@link #appendFutureStart}. A failing conversion fails the future
+    * instead of leaving it pending forever.
+    * @param bodyBuilder the builder of method body (required)
+    * @param resultType the fully qualified type of future result (required)
+    * @param responseType the fully qualified type of Elasticsearch response (required)
+    */
+   private static void appendFutureEnd(final InvocableMemberBodyBuilder bodyBuilder, final String resultType, 
+         final String responseType) {
+      appendFutureEnd(bodyBuilder, resultType, responseType, null);
+   }
+
+   /**
+    * Closes the declaration opened by {@link #appendFutureStart}, failing the future with an optimistic locking
+    * failure instead of a version conflict if <code>versionedType</code> is given. The written entity is 
+    * expected to be held by an <code>indexed</code> variable.
+    * @param bodyBuilder the builder of method body (required)
+    * @param resultType the fully qualified type of future result (required)
+    * @param responseType the fully qualified type of Elasticsearch response (required)
+    * @param versionedType the type of versioned entity being written, <code>null</code> if none
+    */
+   private static void appendFutureEnd(final InvocableMemberBodyBuilder bodyBuilder, final String resultType, 
+         final String responseType, final JavaType versionedType) {
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("}");
+      if (versionedType != null) {
+         bodyBuilder.appendFormalLine("public void onFailure(Throwable e) {");
+         bodyBuilder.indent();
+         bodyBuilder.appendFormalLine("if (org.elasticsearch.ExceptionsHelper.unwrapCause(e) instanceof " + VERSION_CONFLICT + ") {");
+         bodyBuilder.indent();
+         bodyBuilder.appendFormalLine("e = new " + OPTIMISTIC_LOCKING_FAILURE + "(\"" + versionedType.getSimpleTypeName() + " \" + " 
+               + "indexed.getId() + \" has been modified since version \" + indexed.getVersion(), e);");
+         bodyBuilder.indentRemove();
+         bodyBuilder.appendFormalLine("}");
+         bodyBuilder.appendFormalLine("super.onFailure(e);");
+         bodyBuilder.indentRemove();
+         bodyBuilder.appendFormalLine("}");
+      }
+      bodyBuilder.appendFormalLine("public void onResponse(" + responseType + " response) {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("try {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("super.onResponse(response);");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("} catch (RuntimeException re) {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("onFailure(re);");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("}");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("}");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("};");
+   }
+
+   /**
+    * Returns the <code>Future</code> type of given result type.
+    * @param resultType the type of result (required)
+    * @return a non-<code>null</code> type
+    */
+   private static JavaType getFutureOf(final JavaType resultType) {
+      return new JavaType("java.util.concurrent.Future", 0, DataType.TYPE, null, Arrays.asList(resultType));
+   }
+
+   /**
+    * Returns the name of the support method looking up the cache of given entity type.
+    * @param entityType the type of entity being managed (required)
+    * @return a non-blank method name
+    */
+   public static String getCacheLookupMethodName(final JavaType entityType) {
+      return "lookup" + entityType.getSimpleTypeName() + "Cache";
+   }
+
+   /**
+    * Returns the name of the support method storing a result into the cache of given entity type.
+    * @param entityType the type of entity being managed (required)
+    * @return a non-blank method name
+    */
+   public static String getCacheStoreMethodName(final JavaType entityType) {
+      return "store" + entityType.getSimpleTypeName() + "Cache";
+   }
+
+   /**
+    * Returns the name of the support method evicting entries from the cache of given entity type.
+    * @param entityType the type of entity being managed (required)
+    * @return a non-blank method name
+    */
+   public static String getCacheEvictMethodName(final JavaType entityType) {
+      return "evict" + entityType.getSimpleTypeName() + "Cache";
+   }
+
+   /**
+    * Returns the name of the public method exposing the cache statistics of given entity type.
+    * @param entityType the type of entity being managed (required)
+    * @return a non-blank method name
+    */
+   public static String getCacheStatisticsMethodName(final JavaType entityType) {
+      return "get" + entityType.getSimpleTypeName() + "CacheStatistics";
+   }
+
+   private static String getCacheCopyMethodName(final JavaType entityType) {
+      return "copy" + entityType.getSimpleTypeName();
+   }
+
+   private static String getCacheCopiesMethodName(final JavaType entityType) {
+      return "copy" + entityType.getSimpleTypeName() + "List";
+   }
+
+   /**
+    * Adds to repository implementation methods copying an entity of given type, or a list of them, through the mapper. Entities
+    * are copied when stored into the cache and when returned from it, so that callers modifying an entity 
+    * never alter what other callers get from the cache.
+    * @param cidBuilder the builder holding the repository implementation members (required)
+    * @param entityType the type of entity being managed (required)
+    * @param entityValues the values of the entity annotation (required)
+    */
+   private static void addCacheCopyMethods(final ClassOrInterfaceTypeDetailsBuilder cidBuilder, final JavaType entityType,
+         final ElasticsearchEntityAnnotationValues entityValues) {
+      addMapperField(cidBuilder);
+
+      final String entity = entityType.getFullyQualifiedTypeName();
+      InvocableMemberBodyBuilder bodyBuilder = new InvocableMemberBodyBuilder();
+      bodyBuilder.appendFormalLine("if (entity == null) {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("return null;");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("}");
+      bodyBuilder.appendFormalLine("try {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("final " + entity + " copy = " + MAPPER_FIELD_NAME + ".readValue(" + MAPPER_FIELD_NAME 
+            + ".writeValueAsString(entity), " + entity + ".class);");
+      bodyBuilder.appendFormalLine("copy.setId(entity.getId());");
+      if (entityValues.isVersioned()) {
+         bodyBuilder.appendFormalLine("copy.setVersion(entity.getVersion());");
+      }
+      bodyBuilder.appendFormalLine("return copy;");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("} catch (java.io.IOException ioe) {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("throw new IllegalStateException(\"Unable to copy " + entityType.getSimpleTypeName() + " \" + entity.getId(), ioe);");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("}");
+      cidBuilder.addMethod(new MethodMetadataBuilder(cidBuilder.getDeclaredByMetadataId(), Modifier.PRIVATE,
+            new JavaSymbolName(getCacheCopyMethodName(entityType)), entityType, 
+            AnnotatedJavaType.convertFromJavaTypes(Arrays.asList(entityType)), 
+            Arrays.asList(new JavaSymbolName("entity")), bodyBuilder));
+
+      bodyBuilder = new InvocableMemberBodyBuilder();
+      bodyBuilder.appendFormalLine("final java.util.List<" + entity + "> copies = new java.util.ArrayList<" + entity + ">(entities.size());");
+      bodyBuilder.appendFormalLine("for (" + entity + " entity : entities) {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("copies.add(" + getCacheCopyMethodName(entityType) + "(entity));");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("}");
+      bodyBuilder.appendFormalLine("return copies;");
+      cidBuilder.addMethod(new MethodMetadataBuilder(cidBuilder.getDeclaredByMetadataId(), Modifier.PRIVATE,
+            new JavaSymbolName(getCacheCopiesMethodName(entityType)), JavaType.listOf(entityType), 
+            AnnotatedJavaType.convertFromJavaTypes(Arrays.asList(JavaType.listOf(entityType))), 
+            Arrays.asList(new JavaSymbolName("entities")), bodyBuilder));
+   }
+
+   private static String getCacheFieldName(final JavaType entityType) {
+      return StringUtils.uncapitalize(entityType.getSimpleTypeName()) + "Cache";
+   }
+
+   private static String getCachedEntitiesFieldName(final JavaType entityType) {
+      return StringUtils.uncapitalize(entityType.getSimpleTypeName()) + "CachedEntities";
+   }
+
+   private static String getCachedListsFieldName(final JavaType entityType) {
+      return StringUtils.uncapitalize(entityType.getSimpleTypeName()) + "CachedLists";
+   }
+
+   /**
+    * Adds to repository implementation a bounded LRU cache of the results of entity lookups and finders, whose entries expire
+    * after the repository cache duration. The LRU map holds the expiry time of each key (method and arguments) while
+    * results are held by two maps typed after entity lookups and finders; all of them are guarded by the LRU map lock.
+    * Hit, miss and eviction counts are exposed by a public statistics method. Cached results are copies, see
+    * {@link #addCacheCopyMethods}.
+    * @param cidBuilder the builder holding the repository implementation members (required)
+    * @param entityType the type of entity being managed (required)
+    * @param repositoryValues the values of the repository annotation (required)
+    */
+   private static void addCacheMembers(final ClassOrInterfaceTypeDetailsBuilder cidBuilder, final JavaType entityType,
+         final RepositoryElasticsearchAnnotationValues repositoryValues) {
+      final String prefix = StringUtils.uncapitalize(entityType.getSimpleTypeName());
+      final String cacheField = getCacheFieldName(entityType);
+      final String entitiesField = getCachedEntitiesFieldName(entityType);
+      final String listsField = getCachedListsFieldName(entityType);
+      final String hitsField = prefix + "CacheHits";
+      final String missesField = prefix + "CacheMisses";
+      final String evictionsField = prefix + "CacheEvictions";
+      final String entity = entityType.getFullyQualifiedTypeName();
+      final JavaType entityListType = JavaType.listOf(entityType);
+      for (String counterField : Arrays.asList(hitsField, missesField, evictionsField)) {
+         cidBuilder.addField(new FieldMetadataBuilder(cidBuilder.getDeclaredByMetadataId(), Modifier.PRIVATE | Modifier.FINAL,
+               new JavaSymbolName(counterField), ATOMIC_LONG, "new " + ATOMIC_LONG.getFullyQualifiedTypeName() + "()"));
+      }
+      cidBuilder.addField(new FieldMetadataBuilder(cidBuilder.getDeclaredByMetadataId(), Modifier.PRIVATE | Modifier.FINAL,
+            new JavaSymbolName(entitiesField), new JavaType("java.util.Map", 0, DataType.TYPE, null, Arrays.asList(JavaType.STRING, entityType)), 
+            "new java.util.HashMap<String, " + entity + ">()"));
+      cidBuilder.addField(new FieldMetadataBuilder(cidBuilder.getDeclaredByMetadataId(), Modifier.PRIVATE | Modifier.FINAL,
+            new JavaSymbolName(listsField), new JavaType("java.util.Map", 0, DataType.TYPE, null, Arrays.asList(JavaType.STRING, entityListType)), 
+            "new java.util.HashMap<String, java.util.List<" + entity + ">>()"));
+      cidBuilder.addField(new FieldMetadataBuilder(cidBuilder.getDeclaredByMetadataId(), Modifier.PRIVATE | Modifier.FINAL,
+            new JavaSymbolName(cacheField), new JavaType("java.util.Map", 0, DataType.TYPE, null, Arrays.asList(JavaType.STRING, JavaType.LONG_OBJECT)), 
+            "java.util.Collections.synchronizedMap(new java.util.LinkedHashMap<String, Long>(16, 0.75f, true) {\n"
+            + "      protected boolean removeEldestEntry(java.util.Map.Entry<String, Long> eldest) {\n"
+            + "         if (size() > " + repositoryValues.getCache() + ") {\n"
+            + "            " + entitiesField + ".remove(eldest.getKey());\n"
+            + "            " + listsField + ".remove(eldest.getKey());\n"
+            + "            " + evictionsField + ".incrementAndGet();\n"
+            + "            return true;\n"
+            + "         }\n"
+            + "         return false;\n"
+            + "      }\n"
+            + "   })"));
+
+      // Callers hold the cache lock so that a live entry is not evicted before its result is read.
+      InvocableMemberBodyBuilder bodyBuilder = new InvocableMemberBodyBuilder();
+      bodyBuilder.appendFormalLine("final Long expiry = " + cacheField + ".get(key);");
+      bodyBuilder.appendFormalLine("if (expiry == null) {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine(missesField + ".incrementAndGet();");
+      bodyBuilder.appendFormalLine("return false;");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("}");
+      bodyBuilder.appendFormalLine("if (System.currentTimeMillis() > expiry) {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine(cacheField + ".remove(key);");
+      bodyBuilder.appendFormalLine(entitiesField + ".remove(key);");
+      bodyBuilder.appendFormalLine(listsField + ".remove(key);");
+      bodyBuilder.appendFormalLine(evictionsField + ".incrementAndGet();");
+      bodyBuilder.appendFormalLine(missesField + ".incrementAndGet();");
+      bodyBuilder.appendFormalLine("return false;");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("}");
+      bodyBuilder.appendFormalLine(hitsField + ".incrementAndGet();");
+      bodyBuilder.appendFormalLine("return true;");
+      cidBuilder.addMethod(new MethodMetadataBuilder(cidBuilder.getDeclaredByMetadataId(), Modifier.PRIVATE,
+            new JavaSymbolName(getCacheLookupMethodName(entityType)), JavaType.BOOLEAN_PRIMITIVE, 
+            AnnotatedJavaType.convertFromJavaTypes(Arrays.asList(JavaType.STRING)), 
+            Arrays.asList(new JavaSymbolName("key")), bodyBuilder));
+
+      final String expiry = "System.currentTimeMillis() + " + (repositoryValues.getCacheSeconds() * 1000L) + "L";
+      for (JavaType resultType : Arrays.asList(entityType, entityListType)) {
+         bodyBuilder = new InvocableMemberBodyBuilder();
+         bodyBuilder.appendFormalLine("synchronized (" + cacheField + ") {");
+         bodyBuilder.indent();
+         bodyBuilder.appendFormalLine((resultType == entityType ? entitiesField : listsField) + ".put(key, result);");
+         bodyBuilder.appendFormalLine(cacheField + ".put(key, " + expiry + ");");
+         bodyBuilder.indentRemove();
+         bodyBuilder.appendFormalLine("}");
+         cidBuilder.addMethod(new MethodMetadataBuilder(cidBuilder.getDeclaredByMetadataId(), Modifier.PRIVATE,
+               new JavaSymbolName(getCacheStoreMethodName(entityType)), JavaType.VOID_PRIMITIVE, 
+               AnnotatedJavaType.convertFromJavaTypes(Arrays.asList(JavaType.STRING, resultType)), 
+               Arrays.asList(new JavaSymbolName("key"), new JavaSymbolName("result")), bodyBuilder));
+      }
+
+      // Finder results may be affected by any write so they are evicted along with the written entity.
+      bodyBuilder = new InvocableMemberBodyBuilder();
+      bodyBuilder.appendFormalLine("synchronized (" + cacheField + ") {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("final java.util.Iterator<String> keys = " + cacheField + ".keySet().iterator();");
+      bodyBuilder.appendFormalLine("while (keys.hasNext()) {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("final String key = keys.next();");
+      bodyBuilder.appendFormalLine("if (id == null || !key.startsWith(\"" + CACHE_GET_KEY_PREFIX + "\") || key.equals(\"" + CACHE_GET_KEY_PREFIX + "\" + id)) {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("keys.remove();");
+      bodyBuilder.appendFormalLine(entitiesField + ".remove(key);");
+      bodyBuilder.appendFormalLine(listsField + ".remove(key);");
+      bodyBuilder.appendFormalLine(evictionsField + ".incrementAndGet();");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("}");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("}");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("}");
+      cidBuilder.addMethod(new MethodMetadataBuilder(cidBuilder.getDeclaredByMetadataId(), Modifier.PRIVATE,
+            new JavaSymbolName(getCacheEvictMethodName(entityType)), JavaType.VOID_PRIMITIVE, 
+            AnnotatedJavaType.convertFromJavaTypes(Arrays.asList(JavaType.STRING)), 
+            Arrays.asList(new JavaSymbolName("id")), bodyBuilder));
+
+      bodyBuilder = new InvocableMemberBodyBuilder();
+      bodyBuilder.appendFormalLine("final java.util.Map<String, Long> statistics = new java.util.LinkedHashMap<String, Long>();");
+      bodyBuilder.appendFormalLine("statistics.put(\"hits\", " + hitsField + ".get());");
+      bodyBuilder.appendFormalLine("statistics.put(\"misses\", " + missesField + ".get());");
+      bodyBuilder.appendFormalLine("statistics.put(\"evictions\", " + evictionsField + ".get());");
+      bodyBuilder.appendFormalLine("statistics.put(\"size\", (long) " + cacheField + ".size());");
+      bodyBuilder.appendFormalLine("return statistics;");
+      cidBuilder.addMethod(new MethodMetadataBuilder(cidBuilder.getDeclaredByMetadataId(), Modifier.PUBLIC,
+            new JavaSymbolName(getCacheStatisticsMethodName(entityType)), 
+            new JavaType("java.util.Map", 0, DataType.TYPE, null, Arrays.asList(JavaType.STRING, JavaType.LONG_OBJECT)), 
+            bodyBuilder));
+   }
+
+   /**
+    * Appends to a write method body the eviction of the cache entries it may affect, if repository asks for caching,
+    * and the expiry of the cached count, if repository asks for count caching.
+    * @param cidBuilder the builder holding the repository implementation members (required)
+    * @param bodyBuilder the builder of write method body (required)
+    * @param entityType the type of entity being managed (required)
+    * @param repositoryValues the values of the repository annotation (required)
+    * @param idExpression the expression evaluating to the written entity id, <code>"null"</code> to evict all entries
+    */
+   private static void appendCacheEviction(final ClassOrInterfaceTypeDetailsBuilder cidBuilder, final InvocableMemberBodyBuilder bodyBuilder,
+         final JavaType entityType, final RepositoryElasticsearchAnnotationValues repositoryValues, final String idExpression) {
+      if (repositoryValues.isCached()) {
+         addCacheMembers(cidBuilder, entityType, repositoryValues);
+         bodyBuilder.appendFormalLine(getCacheEvictMethodName(entityType) + "(" + idExpression + ");");
+      }
+      if (repositoryValues.getCountCacheSeconds() > 0) {
+         addCountCacheFields(cidBuilder, entityType);
+         bodyBuilder.appendFormalLine(getCountExpiryFieldName(entityType) + " = 0L;");
+      }
+   }
+
+   /**
+    * Returns the Java snippet setting routing of a single entity request, if entity is routed.
+    * @param entityValues the values of the entity annotation (required)
+    * @param entityExpression the expression evaluating to the entity
+    * @return a possibly empty Java snippet
+    */
+   private static String getRouting(final ElasticsearchEntityAnnotationValues entityValues, final String entityExpression) {
+      if (entityValues.isRouted()) {
+         return ".setRouting(" + getRoutingValue(entityValues, entityExpression) + ")";
+      }
+      return "";
+   }
+
+   /**
+    * Returns the Java expression of the routing value of an entity.
+    * @param entityValues the values of the entity annotation (required)
+    * @param entityExpression the expression evaluating to the entity
+    * @return a Java expression, <code>"null"</code> if entity is not routed on a custom field
+    */
+   private static String getRoutingValue(final ElasticsearchEntityAnnotationValues entityValues, final String entityExpression) {
+      if (entityValues.isRouted()) {
+         return entityExpression + "." + ElasticsearchEntityMetadata.ROUTING_ACCESSOR_NAME + "()";
+      }
+      return "null";
+   }
+
+   /**
+    * Returns the Java expression of the index entities are read from: the entity index, or all its period
+    * indices for rolling entities. Expression expects a <code>document</code> variable holding entity annotation.
+    * @param entityValues the values of the entity annotation (required)
+    * @return a Java expression
+    */
+   public static String getReadIndex(final ElasticsearchEntityAnnotationValues entityValues) {
+      return entityValues.isRolling() ? "document.indexName() + \"-*\"" : "document.indexName()";
+   }
+
+   /**
+    * Returns the Java expression of the index entities are written to: the entity index, or the index of
+    * current period for rolling entities. Expression expects a <code>document</code> variable holding entity 
+    * annotation. Rolling support methods are added to repository implementation if needed.
+    * @param cidBuilder the builder holding the repository implementation members (required)
+    * @param entityType the type of entity being managed (required)
+    * @param entityValues the values of the entity annotation (required)
+    * @return a Java expression
+    */
+   public static String getWriteIndex(final ClassOrInterfaceTypeDetailsBuilder cidBuilder, final JavaType entityType,
+         final ElasticsearchEntityAnnotationValues entityValues) {
+      if (entityValues.isRolling()) {
+         addRollingMethods(cidBuilder, entityType, entityValues);
+         return getWriteIndexMethodName(entityType) + "()";
+      }
+      return "document.indexName()";
+   }
+
+   /**
+    * Returns the Java expression of the index holding an existing entity: the entity index, or the period
+    * index found through a realtime get for rolling entities. Expression expects a <code>document</code> variable 
+    * holding entity annotation. Rolling support methods are added to repository implementation if needed.
+    * @param cidBuilder the builder holding the repository implementation members (required)
+    * @param entityType the type of entity being managed (required)
+    * @param entityValues the values of the entity annotation (required)
+    * @param idExpression the Java expression of entity identifier (required)
+    * @param routingExpression the Java expression of entity routing value (required, may be <code>"null"</code>)
+    * @return a Java expression
+    */
+   public static String getIndexOf(final ClassOrInterfaceTypeDetailsBuilder cidBuilder, final JavaType entityType,
+         final ElasticsearchEntityAnnotationValues entityValues, final String idExpression, final String routingExpression) {
+      if (entityValues.isRolling()) {
+         addRollingMethods(cidBuilder, entityType, entityValues);
+         return "locate" + entityType.getSimpleTypeName() + "Index(" + idExpression + ", " + routingExpression + ")";
+      }
+      return "document.indexName()";
+   }
+
+   /**
+    * Returns the name of the support method returning the index entities of given type are currently written to.
+    * @param entityType the type of entity being managed (required)
+    * @return a non-blank method name
+    */
+   public static String getWriteIndexMethodName(final JavaType entityType) {
+      return "get" + entityType.getSimpleTypeName() + "WriteIndex";
+   }
+
+   /**
+    * Returns the name of the public method dropping the period indices of given type older than a date.
+    * @param entityType the type of entity being managed (required)
+    * @return a non-blank method name
+    */
+   public static String getDropIndicesMethodName(final JavaType entityType) {
+      return "drop" + entityType.getSimpleTypeName() + "IndicesBefore";
+   }
+
+   /**
+    * Returns the body lines of a method computing the name of the period index holding a date, taking
+    * <code>indexName</code> and <code>date</code> parameters. Periods are computed in UTC so that all
+    * nodes and clients agree on index names.
+    * @param rolling the rolling period of entity (required)
+    * @return the Java statements of method body
+    */
+   public static List<String> getPeriodIndexLines(final RollingPeriod rolling) {
+      final List<String> lines = new ArrayList<String>();
+      lines.add("final java.util.Calendar period = java.util.Calendar.getInstance(java.util.TimeZone.getTimeZone(\"UTC\"));");
+      lines.add("period.setTime(date);");
+      if (rolling == RollingPeriod.WEEKLY) {
+         lines.add("period.setFirstDayOfWeek(java.util.Calendar.MONDAY);");
+         lines.add("period.set(java.util.Calendar.DAY_OF_WEEK, java.util.Calendar.MONDAY);");
+      }
+      lines.add("final java.text.SimpleDateFormat format = new java.text.SimpleDateFormat(\"" + rolling.getDatePattern() + "\");");
+      lines.add("format.setTimeZone(period.getTimeZone());");
+      lines.add("return indexName + \"-\" + format.format(period.getTime());");
+      return lines;
+   }
+
+   /**
+    * Adds to repository implementation the support methods of rolling entities. The current period index is created on first write
+    * from an index template, put once by repository implementation, that copies the settings of entity annotation and the mapping of
+    * entity index. Existing entities are located among period indices through realtime multi-gets, so that 
+    * entities written but not refreshed yet are found as well; the newest period index is looked up first. Period
+    * indices are read from cluster state once and read again when a write starts a new period or indices are dropped. Retention is achieved through a public method 
+    * dropping whole period indices older than a date, rather than deleting documents.
+    * @param cidBuilder the builder holding the repository implementation members (required)
+    * @param entityType the type of entity being managed (required)
+    * @param entityValues the values of the entity annotation (required)
+    */
+   private static void addRollingMethods(final ClassOrInterfaceTypeDetailsBuilder cidBuilder, final JavaType entityType,
+         final ElasticsearchEntityAnnotationValues entityValues) {
+      addClientField(cidBuilder);
+
+      final String entity = entityType.getFullyQualifiedTypeName();
+      final String periodIndexMethodName = "get" + entityType.getSimpleTypeName() + "PeriodIndex";
+      final String templateField = StringUtils.uncapitalize(entityType.getSimpleTypeName()) + "IndexTemplatePut";
+      final String periodIndicesField = StringUtils.uncapitalize(entityType.getSimpleTypeName()) + "PeriodIndices";
+      final String periodIndicesMethodName = "get" + entityType.getSimpleTypeName() + "PeriodIndices";
+      final String loadPeriodIndicesMethodName = "load" + entityType.getSimpleTypeName() + "PeriodIndices";
+      final String findIndexMethodName = "find" + entityType.getSimpleTypeName() + "Index";
+      final JavaType indicesType = new JavaType("java.util.Map", 0, DataType.TYPE, null, Arrays.asList(JavaType.STRING, DATE));
+      InvocableMemberBodyBuilder bodyBuilder = new InvocableMemberBodyBuilder();
+      for (String line : getPeriodIndexLines(entityValues.getRolling())) {
+         bodyBuilder.appendFormalLine(line);
+      }
+      cidBuilder.addMethod(new MethodMetadataBuilder(cidBuilder.getDeclaredByMetadataId(), Modifier.PRIVATE,
+            new JavaSymbolName(periodIndexMethodName), JavaType.STRING, 
+            AnnotatedJavaType.convertFromJavaTypes(Arrays.asList(JavaType.STRING, DATE)), 
+            Arrays.asList(new JavaSymbolName("indexName"), new JavaSymbolName("date")), bodyBuilder));
+
+      cidBuilder.addField(new FieldMetadataBuilder(cidBuilder.getDeclaredByMetadataId(), Modifier.PRIVATE | Modifier.VOLATILE,
+            new JavaSymbolName(templateField), JavaType.BOOLEAN_PRIMITIVE, null));
+      bodyBuilder = new InvocableMemberBodyBuilder();
+      bodyBuilder.appendFormalLine("final " + DOCUMENT + " document = " + entity + ".class.getAnnotation(" + DOCUMENT + ".class);");
+      bodyBuilder.appendFormalLine("if (!" + templateField + ") {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("final org.elasticsearch.action.admin.indices.template.put.PutIndexTemplateRequestBuilder template = " 
+            + CLIENT_FIELD_NAME + ".admin().indices()");
+      bodyBuilder.appendFormalLine("      .preparePutTemplate(document.indexName()).setTemplate(document.indexName() + \"-*\")");
+      bodyBuilder.appendFormalLine("      .setSettings(org.elasticsearch.common.settings.ImmutableSettings.settingsBuilder()");
+      bodyBuilder.appendFormalLine("            .put(\"index.number_of_shards\", document.shards()).put(\"index.number_of_replicas\", document.replicas())");
+      bodyBuilder.appendFormalLine("            .put(\"index.refresh_interval\", document.refreshInterval()).build());");
+      bodyBuilder.appendFormalLine("final org.elasticsearch.cluster.metadata.IndexMetaData entityIndex = " + CLIENT_FIELD_NAME 
+            + ".admin().cluster().prepareState()");
+      bodyBuilder.appendFormalLine("      .setFilterIndices(document.indexName()).execute().actionGet().getState().getMetaData().index(document.indexName());");
+      bodyBuilder.appendFormalLine("if (entityIndex != null && entityIndex.mapping(document.type()) != null) {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("try {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("template.addMapping(document.type(), entityIndex.mapping(document.type()).source().string());");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("} catch (java.io.IOException ioe) {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("throw new IllegalStateException(\"Unable to read mapping of \" + document.indexName(), ioe);");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("}");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("}");
+      bodyBuilder.appendFormalLine("template.execute().actionGet();");
+      bodyBuilder.appendFormalLine(templateField + " = true;");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("}");
+      bodyBuilder.appendFormalLine("final String index = " + periodIndexMethodName + "(document.indexName(), new java.util.Date());");
+      bodyBuilder.appendFormalLine("final java.util.Map<String, java.util.Date> indices = " + periodIndicesField + ";");
+      bodyBuilder.appendFormalLine("if (indices != null && !indices.containsKey(index)) {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("// A new period starts: its index is created by this write and has to be located from now on.");
+      bodyBuilder.appendFormalLine(periodIndicesField + " = null;");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("}");
+      bodyBuilder.appendFormalLine("return index;");
+      cidBuilder.addMethod(new MethodMetadataBuilder(cidBuilder.getDeclaredByMetadataId(), Modifier.PRIVATE,
+            new JavaSymbolName(getWriteIndexMethodName(entityType)), JavaType.STRING, bodyBuilder));
+
+      // Period indices are recognized by their parsed start date, not just by their prefix.
+      bodyBuilder = new InvocableMemberBodyBuilder();
+      bodyBuilder.appendFormalLine("final " + DOCUMENT + " document = " + entity + ".class.getAnnotation(" + DOCUMENT + ".class);");
+      bodyBuilder.appendFormalLine("final java.text.SimpleDateFormat format = new java.text.SimpleDateFormat(\"" 
+            + entityValues.getRolling().getDatePattern() + "\");");
+      bodyBuilder.appendFormalLine("format.setTimeZone(java.util.TimeZone.getTimeZone(\"UTC\"));");
+      bodyBuilder.appendFormalLine("format.setLenient(false);");
+      bodyBuilder.appendFormalLine("final String prefix = document.indexName() + \"-\";");
+      bodyBuilder.appendFormalLine("final java.util.Map<String, java.util.Date> indices = new java.util.LinkedHashMap<String, java.util.Date>();");
+      bodyBuilder.appendFormalLine("for (String index : " + CLIENT_FIELD_NAME + ".admin().cluster().prepareState()");
+      bodyBuilder.appendFormalLine("      .setFilterNodes(true).setFilterRoutingTable(true).setFilterBlocks(true)");
+      bodyBuilder.appendFormalLine("      .execute().actionGet().getState().getMetaData().concreteAllIndices()) {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("if (index.startsWith(prefix)) {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("final java.text.ParsePosition position = new java.text.ParsePosition(0);");
+      bodyBuilder.appendFormalLine("final java.util.Date start = format.parse(index.substring(prefix.length()), position);");
+      bodyBuilder.appendFormalLine("if (start != null && position.getIndex() == index.length() - prefix.length()) {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("indices.put(index, start);");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("}");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("}");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("}");
+      bodyBuilder.appendFormalLine("return java.util.Collections.unmodifiableMap(indices);");
+      cidBuilder.addMethod(new MethodMetadataBuilder(cidBuilder.getDeclaredByMetadataId(), Modifier.PRIVATE,
+            new JavaSymbolName(loadPeriodIndicesMethodName), indicesType, bodyBuilder));
+
+      // Cluster state is only read again once a write starts a new period or indices are dropped.
+      cidBuilder.addField(new FieldMetadataBuilder(cidBuilder.getDeclaredByMetadataId(), Modifier.PRIVATE | Modifier.VOLATILE,
+            new JavaSymbolName(periodIndicesField), indicesType, null));
+      bodyBuilder = new InvocableMemberBodyBuilder();
+      bodyBuilder.appendFormalLine("java.util.Map<String, java.util.Date> indices = " + periodIndicesField + ";");
+      bodyBuilder.appendFormalLine("if (indices == null) {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("indices = " + loadPeriodIndicesMethodName + "();");
+      bodyBuilder.appendFormalLine(periodIndicesField + " = indices;");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("}");
+      bodyBuilder.appendFormalLine("return indices;");
+      cidBuilder.addMethod(new MethodMetadataBuilder(cidBuilder.getDeclaredByMetadataId(), Modifier.PRIVATE,
+            new JavaSymbolName(periodIndicesMethodName), indicesType, bodyBuilder));
+
+      bodyBuilder = new InvocableMemberBodyBuilder();
+      bodyBuilder.appendFormalLine("final " + DOCUMENT + " document = " + entity + ".class.getAnnotation(" + DOCUMENT + ".class);");
+      bodyBuilder.appendFormalLine("final org.elasticsearch.action.get.MultiGetRequestBuilder request = " + CLIENT_FIELD_NAME + ".prepareMultiGet().setRealtime(true);");
+      bodyBuilder.appendFormalLine("for (String index : indices) {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("request.add(new org.elasticsearch.action.get.MultiGetRequest.Item(index, document.type(), id).routing(routing).fields(new String[0]));");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("}");
+      bodyBuilder.appendFormalLine("for (org.elasticsearch.action.get.MultiGetItemResponse item : request.execute().actionGet()) {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("if (!item.isFailed() && item.getResponse().isExists()) {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("return item.getIndex();");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("}");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("}");
+      bodyBuilder.appendFormalLine("return null;");
+      cidBuilder.addMethod(new MethodMetadataBuilder(cidBuilder.getDeclaredByMetadataId(), Modifier.PRIVATE,
+            new JavaSymbolName(findIndexMethodName), JavaType.STRING, 
+            AnnotatedJavaType.convertFromJavaTypes(Arrays.asList(new JavaType("java.util.Collection", 0, DataType.TYPE, null, 
+                  Arrays.asList(JavaType.STRING)), JavaType.STRING, JavaType.STRING)), 
+            Arrays.asList(new JavaSymbolName("indices"), new JavaSymbolName("id"), new JavaSymbolName("routing")), bodyBuilder));
+
+      // Gets are realtime: entities written but not refreshed yet are found. Recent entities being the most 
+      // accessed, the newest period index is looked up alone before the older ones. Entities not found yet are 
+      // located in current period index, where they would be written.
+      bodyBuilder = new InvocableMemberBodyBuilder();
+      bodyBuilder.appendFormalLine("final java.util.Map<String, java.util.Date> indices = " + periodIndicesMethodName + "();");
+      bodyBuilder.appendFormalLine("String newest = null;");
+      bodyBuilder.appendFormalLine("for (java.util.Map.Entry<String, java.util.Date> index : indices.entrySet()) {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("if (newest == null || index.getValue().after(indices.get(newest))) {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("newest = index.getKey();");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("}");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("}");
+      bodyBuilder.appendFormalLine("if (newest != null) {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("String index = " + findIndexMethodName + "(java.util.Collections.singleton(newest), id, routing);");
+      bodyBuilder.appendFormalLine("if (index == null && indices.size() > 1) {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("final java.util.Set<String> older = new java.util.HashSet<String>(indices.keySet());");
+      bodyBuilder.appendFormalLine("older.remove(newest);");
+      bodyBuilder.appendFormalLine("index = " + findIndexMethodName + "(older, id, routing);");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("}");
+      bodyBuilder.appendFormalLine("if (index != null) {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("return index;");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("}");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("}");
+      bodyBuilder.appendFormalLine("return " + getWriteIndexMethodName(entityType) + "();");
+      cidBuilder.addMethod(new MethodMetadataBuilder(cidBuilder.getDeclaredByMetadataId(), Modifier.PRIVATE,
+            new JavaSymbolName("locate" + entityType.getSimpleTypeName() + "Index"), JavaType.STRING, 
+            AnnotatedJavaType.convertFromJavaTypes(Arrays.asList(JavaType.STRING, JavaType.STRING)), 
+            Arrays.asList(new JavaSymbolName("id"), new JavaSymbolName("routing")), bodyBuilder));
+
+      // A period starting before date is older than the period of date unless it is that very period. Indices
+      // are read from cluster state as others may have been created by other clients.
+      bodyBuilder = new InvocableMemberBodyBuilder();
+      bodyBuilder.appendFormalLine("final " + DOCUMENT + " document = " + entity + ".class.getAnnotation(" + DOCUMENT + ".class);");
+      bodyBuilder.appendFormalLine("final String current = " + periodIndexMethodName + "(document.indexName(), date);");
+      bodyBuilder.appendFormalLine("try {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("for (java.util.Map.Entry<String, java.util.Date> index : " + loadPeriodIndicesMethodName + "().entrySet()) {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine("if (index.getValue().before(date) && !index.getKey().equals(current)) {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine(CLIENT_FIELD_NAME + ".admin().indices().prepareDelete(index.getKey()).execute().actionGet();");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("}");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("}");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("} finally {");
+      bodyBuilder.indent();
+      bodyBuilder.appendFormalLine(periodIndicesField + " = null;");
+      bodyBuilder.indentRemove();
+      bodyBuilder.appendFormalLine("}");
+      cidBuilder.addMethod(new MethodMetadataBuilder(cidBuilder.getDeclaredByMetadataId(), Modifier.PUBLIC,
+            new JavaSymbolName(getDropIndicesMethodName(entityType)), JavaType.VOID_PRIMITIVE, 
+            AnnotatedJavaType.convertFromJavaTypes(Arrays.asList(DATE)), 
+            Arrays.asList(new JavaSymbolName("date")), bodyBuilder));
+   }
+
+   /**
+    * Returns the members of the custom implementation of a repository : those of every layer method, each one
+    * once as several methods share the client, mapper or cache members.
+    * @param declaredByMetadataId the identifier of the metadata declaring the members (required)
+    * @param entityType the type of entity being managed (required)
+    * @param entityValues the values of the entity annotation (required)
+    * @param repositoryValues the values of the repository annotation (required)
+    * @return a builder holding distinct fields and methods
+    */
+   public static ClassOrInterfaceTypeDetailsBuilder getImplementationMembers(final String declaredByMetadataId, 
+         final JavaType entityType, final ElasticsearchEntityAnnotationValues entityValues, 
+         final RepositoryElasticsearchAnnotationValues repositoryValues) {
+      final ClassOrInterfaceTypeDetailsBuilder allMembers = new ClassOrInterfaceTypeDetailsBuilder(declaredByMetadataId);
+      for (final RepositoryElasticsearchLayerMethod method : RepositoryElasticsearchLayerMethod.values()) {
+         if (method.isAvailable(entityValues)) {
+            method.addSupportMembers(allMembers, entityType, entityValues, repositoryValues);
+         }
+      }
+      final ClassOrInterfaceTypeDetailsBuilder members = new ClassOrInterfaceTypeDetailsBuilder(declaredByMetadataId);
+      final Set<String> signatures = new HashSet<String>();
+      for (final FieldMetadataBuilder field : allMembers.getDeclaredFields()) {
+         if (signatures.add("field " + field.getFieldName())) {
+            members.addField(field);
+         }
+      }
+      for (final MethodMetadataBuilder method : allMembers.getDeclaredMethods()) {
+         if (signatures.add("method " + method.getMethodName() 
+               + AnnotatedJavaType.convertFromAnnotatedJavaTypes(method.getParameterTypes()))) {
+            members.addMethod(method);
+         }
+      }
+      return members;
+   }
+
+   /**
+    * Returns the <code>Iterable</code> type of given element type.
+    * @param elementType the type of elements (required)
+    * @return a non-<code>null</code> type
+    */
+   public static JavaType getIterableOf(final JavaType elementType) {
+      return new JavaType(Iterable.class.getName(), 0, DataType.TYPE, null, Arrays.asList(elementType));
+   }
+}
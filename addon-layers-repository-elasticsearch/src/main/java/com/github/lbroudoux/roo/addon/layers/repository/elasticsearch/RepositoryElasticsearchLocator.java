@@ -35,4 +35,11 @@ public interface RepositoryElasticsearchLocator {
     * @return a non-<code>null</code> collection
     */
    Collection<ClassOrInterfaceTypeDetails> getRepositories(final JavaType domainType);
+   
+   /**
+    * Returns the role of a repository, as parsed when the repository was located
+    * @param repository one of the repositories returned by {@link #getRepositories(JavaType)} (required)
+    * @return the role of repository, {@link RepositoryRole#DEFAULT} if it is not known
+    */
+   RepositoryRole getRole(final ClassOrInterfaceTypeDetails repository);
 }
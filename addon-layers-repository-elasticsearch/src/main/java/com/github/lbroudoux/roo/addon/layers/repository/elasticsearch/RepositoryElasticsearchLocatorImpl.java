@@ -19,58 +19,134 @@
 package com.github.lbroudoux.roo.addon.layers.repository.elasticsearch;
 
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.felix.scr.annotations.Component;
 import org.apache.felix.scr.annotations.Reference;
 import org.apache.felix.scr.annotations.Service;
+import org.osgi.service.component.ComponentContext;
+import org.springframework.roo.classpath.PhysicalTypeIdentifier;
+import org.springframework.roo.classpath.PhysicalTypeMetadata;
 import org.springframework.roo.classpath.TypeLocationService;
 import org.springframework.roo.classpath.details.ClassOrInterfaceTypeDetails;
 import org.springframework.roo.classpath.details.DefaultPhysicalTypeMetadata;
+import org.springframework.roo.metadata.MetadataDependencyRegistry;
+import org.springframework.roo.metadata.MetadataNotificationListener;
 import org.springframework.roo.model.JavaType;
 
 /**
- * Locates Spring Data Elasticsearch Repositories within the user's project.
+ * Locates Spring Data Elasticsearch Repositories within the user's project. Repositories are indexed by 
+ * domain type once, then the index is kept up to date from physical type notifications : only the notified 
+ * type is examined again, so that lookups do not scan the project.
  * @author Laurent Broudoux
  */
 @Component
 @Service
-public class RepositoryElasticsearchLocatorImpl implements RepositoryElasticsearchLocator {
+public class RepositoryElasticsearchLocatorImpl implements RepositoryElasticsearchLocator, MetadataNotificationListener {
 
    @Reference 
    private TypeLocationService typeLocationService;
+   @Reference
+   private MetadataDependencyRegistry metadataDependencyRegistry;
    
-   private final Map<JavaType, Set<ClassOrInterfaceTypeDetails>> cacheMap = new HashMap<JavaType, Set<ClassOrInterfaceTypeDetails>>();
+   /** The repositories of each domain type, keyed by their physical type identifier. */
+   private final Map<JavaType, Map<String, ClassOrInterfaceTypeDetails>> cacheMap = 
+         new ConcurrentHashMap<JavaType, Map<String, ClassOrInterfaceTypeDetails>>();
+   /** The domain type of each indexed repository, keyed by its physical type identifier. */
+   private final Map<String, JavaType> repositoryDomainTypes = new ConcurrentHashMap<String, JavaType>();
+   /** The role of each indexed repository, keyed by its physical type identifier. */
+   private final Map<String, RepositoryRole> repositoryRoles = new ConcurrentHashMap<String, RepositoryRole>();
+   
+   private volatile boolean indexed = false;
+   
+   protected void activate(final ComponentContext context) {
+      metadataDependencyRegistry.addNotificationListener(this);
+   }
+   
+   protected void deactivate(final ComponentContext context) {
+      metadataDependencyRegistry.removeNotificationListener(this);
+   }
    
    @Override
    public Collection<ClassOrInterfaceTypeDetails> getRepositories(JavaType domainType){
-      if (!cacheMap.containsKey(domainType)) {
-         cacheMap.put(domainType, new HashSet<ClassOrInterfaceTypeDetails>());
+      if (!indexed) {
+         indexRepositories();
+      }
+      final Map<String, ClassOrInterfaceTypeDetails> repositories = cacheMap.get(domainType);
+      if (repositories == null) {
+         return Collections.emptyList();
+      }
+      return Collections.unmodifiableCollection(repositories.values());
+   }
+   
+   @Override
+   public RepositoryRole getRole(final ClassOrInterfaceTypeDetails repository){
+      // Annotation values are parsed once at indexing time rather than on each layer method lookup.
+      final RepositoryRole role = repositoryRoles.get(repository.getDeclaredByMetadataId());
+      return role == null ? RepositoryRole.DEFAULT : role;
+   }
+   
+   /** {@inheritDoc} */
+   public void notify(final String upstreamDependency, final String downstreamDependency) {
+      if (!indexed || upstreamDependency == null || !PhysicalTypeIdentifier.isValid(upstreamDependency)) {
+         return;
       }
-      
-      final Set<ClassOrInterfaceTypeDetails> existing = cacheMap.get(domainType);
-      final Set<ClassOrInterfaceTypeDetails> located = typeLocationService
-            .findClassesOrInterfaceDetailsWithAnnotation(ElasticsearchJavaType.ROO_REPOSITORY_ELASTICSEARCH);
-      
-      if (existing.containsAll(located)){
-         return existing;
+      // Only types that are, or were, repositories are of interest: others are not even parsed again.
+      final ClassOrInterfaceTypeDetails cid = typeLocationService.getTypeDetails(PhysicalTypeIdentifier.getJavaType(upstreamDependency));
+      final boolean repository = cid != null && cid.getAnnotation(ElasticsearchJavaType.ROO_REPOSITORY_ELASTICSEARCH) != null;
+      if (!repository && !repositoryDomainTypes.containsKey(upstreamDependency)) {
+         return;
       }
-      
-      final Map<String, ClassOrInterfaceTypeDetails> toReturn = new HashMap<String, ClassOrInterfaceTypeDetails>();
-      for (final ClassOrInterfaceTypeDetails cid : located) {
-         final RepositoryElasticsearchAnnotationValues annotationValues = new RepositoryElasticsearchAnnotationValues(
-               new DefaultPhysicalTypeMetadata(
-                     cid.getDeclaredByMetadataId(),
-                     typeLocationService.getPhysicalTypeCanonicalPath(cid.getDeclaredByMetadataId()), cid)
-               );
-         if (annotationValues.getDomainType() != null 
-               && annotationValues.getDomainType().equals(domainType)) {
-            toReturn.put(cid.getDeclaredByMetadataId(), cid);
+      // Forget about the notified type then index it again if it is still a repository.
+      unindex(upstreamDependency);
+      if (repository) {
+         index(cid);
+      }
+   }
+   
+   private synchronized void indexRepositories() {
+      if (indexed) {
+         return;
+      }
+      for (final ClassOrInterfaceTypeDetails cid : typeLocationService
+            .findClassesOrInterfaceDetailsWithAnnotation(ElasticsearchJavaType.ROO_REPOSITORY_ELASTICSEARCH)) {
+         index(cid);
+      }
+      indexed = true;
+   }
+   
+   private synchronized void index(final ClassOrInterfaceTypeDetails cid) {
+      if (cid.getAnnotation(ElasticsearchJavaType.ROO_REPOSITORY_ELASTICSEARCH) == null) {
+         return;
+      }
+      final PhysicalTypeMetadata physicalTypeMetadata = new DefaultPhysicalTypeMetadata(cid.getDeclaredByMetadataId(),
+            typeLocationService.getPhysicalTypeCanonicalPath(cid.getDeclaredByMetadataId()), cid);
+      final RepositoryElasticsearchAnnotationValues annotationValues = new RepositoryElasticsearchAnnotationValues(physicalTypeMetadata);
+      final JavaType domainType = annotationValues.getDomainType();
+      if (domainType == null) {
+         return;
+      }
+      Map<String, ClassOrInterfaceTypeDetails> repositories = cacheMap.get(domainType);
+      if (repositories == null) {
+         repositories = new ConcurrentHashMap<String, ClassOrInterfaceTypeDetails>();
+         cacheMap.put(domainType, repositories);
+      }
+      repositories.put(cid.getDeclaredByMetadataId(), cid);
+      repositoryDomainTypes.put(cid.getDeclaredByMetadataId(), domainType);
+      repositoryRoles.put(cid.getDeclaredByMetadataId(), annotationValues.getRole());
+   }
+   
+   private synchronized void unindex(final String physicalTypeIdentifier) {
+      repositoryRoles.remove(physicalTypeIdentifier);
+      final JavaType domainType = repositoryDomainTypes.remove(physicalTypeIdentifier);
+      if (domainType != null) {
+         final Map<String, ClassOrInterfaceTypeDetails> repositories = cacheMap.get(domainType);
+         repositories.remove(physicalTypeIdentifier);
+         if (repositories.isEmpty()) {
+            cacheMap.remove(domainType);
          }
       }
-      return toReturn.values();
    }
 }
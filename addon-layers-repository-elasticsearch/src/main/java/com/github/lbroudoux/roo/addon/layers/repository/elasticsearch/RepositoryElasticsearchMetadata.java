@@ -18,15 +18,23 @@
  */
 package com.github.lbroudoux.roo.addon.layers.repository.elasticsearch;
 
+import java.lang.reflect.Modifier;
 import java.util.Arrays;
+import java.util.List;
 
 import org.apache.commons.lang3.Validate;
 import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.springframework.roo.classpath.PhysicalTypeIdentifierNamingUtils;
 import org.springframework.roo.classpath.PhysicalTypeMetadata;
+import org.springframework.roo.classpath.details.ClassOrInterfaceTypeDetailsBuilder;
+import org.springframework.roo.classpath.details.MethodMetadata;
+import org.springframework.roo.classpath.details.MethodMetadataBuilder;
+import org.springframework.roo.classpath.details.annotations.AnnotatedJavaType;
 import org.springframework.roo.classpath.itd.AbstractItdTypeDetailsProvidingMetadataItem;
+import org.springframework.roo.classpath.itd.InvocableMemberBodyBuilder;
 import org.springframework.roo.metadata.MetadataIdentificationUtils;
 import org.springframework.roo.model.DataType;
+import org.springframework.roo.model.JavaSymbolName;
 import org.springframework.roo.model.JavaType;
 import org.springframework.roo.model.SpringJavaType;
 import org.springframework.roo.project.LogicalPath;
@@ -68,10 +76,13 @@ public class RepositoryElasticsearchMetadata extends AbstractItdTypeDetailsProvi
     * @param identifier
     * @param aspectName
     * @param governorPhysicalTypeMetadata
+    * @param annotationValues the values of the repository annotation (required)
+    * @param entityValues the values of the domain type annotation, <code>null</code> if not known yet
     */
    protected RepositoryElasticsearchMetadata(String identifier, JavaType aspectName, 
          PhysicalTypeMetadata governorPhysicalTypeMetadata,
-         final RepositoryElasticsearchAnnotationValues annotationValues){
+         final RepositoryElasticsearchAnnotationValues annotationValues,
+         final ElasticsearchEntityAnnotationValues entityValues){
       super(identifier, aspectName, governorPhysicalTypeMetadata);
       
       Validate.notNull(annotationValues, "Annotation values required");
@@ -84,10 +95,33 @@ public class RepositoryElasticsearchMetadata extends AbstractItdTypeDetailsProvi
 
       builder.addAnnotation(getTypeAnnotation(SpringJavaType.REPOSITORY));
       
+      // Declare the methods served by the custom implementation so that callers reach them through the repository.
+      if (entityValues != null) {
+         final ClassOrInterfaceTypeDetailsBuilder members = RepositoryElasticsearchLayerSupport.getImplementationMembers(
+               getId(), annotationValues.getDomainType(), entityValues, annotationValues);
+         for (final MethodMetadataBuilder method : members.getDeclaredMethods()) {
+            if (Modifier.isPublic(method.getModifier()) && !methodExists(method.getMethodName(), method.getParameterTypes())) {
+               builder.addMethod(new MethodMetadataBuilder(getId(), Modifier.PUBLIC | Modifier.ABSTRACT, 
+                     method.getMethodName(), method.getReturnType(), method.getParameterTypes(), 
+                     method.getParameterNames(), new InvocableMemberBodyBuilder()));
+            }
+         }
+      }
+      
       // Build the ITD.
       itdTypeDetails = builder.build();
    }
    
+   private boolean methodExists(final JavaSymbolName methodName, final List<AnnotatedJavaType> parameterTypes) {
+      // Methods declared by user on the repository interface win over generated ones.
+      for (final MethodMetadata method : governorTypeDetails.getDeclaredMethods()) {
+         if (method.getMethodName().equals(methodName) && method.getParameterTypes().equals(parameterTypes)) {
+            return true;
+         }
+      }
+      return false;
+   }
+   
    @Override
    public String toString() {
        final ToStringBuilder builder = new ToStringBuilder(this);
@@ -18,8 +18,10 @@
  */
 package com.github.lbroudoux.roo.addon.layers.repository.elasticsearch;
 
-import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
 
 import org.apache.felix.scr.annotations.Component;
 import org.apache.felix.scr.annotations.Reference;
@@ -29,11 +31,13 @@ import org.springframework.roo.classpath.PhysicalTypeIdentifier;
 import org.springframework.roo.classpath.PhysicalTypeMetadata;
 import org.springframework.roo.classpath.customdata.taggers.CustomDataKeyDecorator;
 import org.springframework.roo.classpath.details.ItdTypeDetails;
-import org.springframework.roo.classpath.details.MemberHoldingTypeDetails;
+import org.springframework.roo.classpath.details.ClassOrInterfaceTypeDetails;
+import org.springframework.roo.classpath.details.DefaultPhysicalTypeMetadata;
 import org.springframework.roo.classpath.itd.AbstractMemberDiscoveringItdMetadataProvider;
 import org.springframework.roo.classpath.itd.ItdTriggerBasedMetadataProvider;
 import org.springframework.roo.classpath.itd.ItdTypeDetailsProvidingMetadataItem;
 import org.springframework.roo.classpath.layers.LayerTypeMatcher;
+import org.springframework.roo.metadata.MetadataNotificationListener;
 import org.springframework.roo.model.JavaSymbolName;
 import org.springframework.roo.model.JavaType;
 import org.springframework.roo.project.LogicalPath;
@@ -50,8 +54,25 @@ public class RepositoryElasticsearchMetadataProvider extends AbstractMemberDisco
    @Reference
    private CustomDataKeyDecorator customDataKeyDecorator;
    
-   private final Map<JavaType, String> domainTypeToRepositoryMidMap = new LinkedHashMap<JavaType, String>();
-   private final Map<String, JavaType> repositoryMidToDomainTypeMap = new LinkedHashMap<String, JavaType>();
+   // Several repositories may manage the same domain type, and notifications come from several threads.
+   private final Map<JavaType, Set<String>> domainTypeToRepositoryMidMap = new ConcurrentHashMap<JavaType, Set<String>>();
+   private final Map<String, JavaType> repositoryMidToDomainTypeMap = new ConcurrentHashMap<String, JavaType>();
+   
+   private final MetadataFingerprintCache fingerprintCache = new MetadataFingerprintCache();
+   
+   // Metadata of repositories that have been deleted or are no longer annotated has to be forgotten.
+   private final MetadataNotificationListener governorListener = new MetadataNotificationListener() {
+      public void notify(final String upstreamDependency, final String downstreamDependency) {
+         if (upstreamDependency == null || !PhysicalTypeIdentifier.isValid(upstreamDependency)) {
+            return;
+         }
+         final String repositoryMid = createLocalIdentifier(PhysicalTypeIdentifier.getJavaType(upstreamDependency), 
+               PhysicalTypeIdentifier.getPath(upstreamDependency));
+         if (fingerprintCache.contains(repositoryMid) && !isRepositoryPresent(repositoryMid)) {
+            fingerprintCache.remove(repositoryMid);
+         }
+      }
+   };
    
    /**
     * The activate method for this OSGi component, this will be called by the OSGi container upon bundle activation 
@@ -61,6 +82,7 @@ public class RepositoryElasticsearchMetadataProvider extends AbstractMemberDisco
    protected void activate(ComponentContext context) {
       super.setDependsOnGovernorBeingAClass(false);
       metadataDependencyRegistry.addNotificationListener(this);
+      metadataDependencyRegistry.addNotificationListener(governorListener);
       metadataDependencyRegistry.registerDependency(PhysicalTypeIdentifier.getMetadataIdentiferType(), getProvidesType());
       addMetadataTrigger(ElasticsearchJavaType.ROO_REPOSITORY_ELASTICSEARCH);
       registerMatchers();
@@ -73,9 +95,11 @@ public class RepositoryElasticsearchMetadataProvider extends AbstractMemberDisco
     */
    protected void deactivate(ComponentContext context) {
       metadataDependencyRegistry.removeNotificationListener(this);
+      metadataDependencyRegistry.removeNotificationListener(governorListener);
       metadataDependencyRegistry.deregisterDependency(PhysicalTypeIdentifier.getMetadataIdentiferType(), getProvidesType());
       removeMetadataTrigger(ElasticsearchJavaType.ROO_REPOSITORY_ELASTICSEARCH);
       customDataKeyDecorator.unregisterMatchers(getClass());
+      fingerprintCache.clear();
    }
    
    @Override
@@ -90,23 +114,24 @@ public class RepositoryElasticsearchMetadataProvider extends AbstractMemberDisco
 
    @Override
    protected String getLocalMidToRequest(ItdTypeDetails itdTypeDetails) {      
-      // Determine the governor for this ITD, and whether any metadata is even hoping to hear about changes to that JavaType and its ITDs.
-      final JavaType governor = itdTypeDetails.getName();
-      final String localMid = domainTypeToRepositoryMidMap.get(governor);
-      if (localMid != null) {
-         return localMid;
+      // Repository ITDs only depend on their domain type, so the governor of this ITD is all we have to resolve.
+      final Set<String> localMids = domainTypeToRepositoryMidMap.get(itdTypeDetails.getName());
+      if (localMids == null) {
+         return null;
       }
-
-      final MemberHoldingTypeDetails memberHoldingTypeDetails = typeLocationService.getTypeDetails(governor);
-      if (memberHoldingTypeDetails != null) {
-         for (final JavaType type : memberHoldingTypeDetails.getLayerEntities()) {
-            final String localMidType = domainTypeToRepositoryMidMap.get(type);
-            if (localMidType != null) {
-               return localMidType;
-            }
+      
+      // Only one metadata can be requested back. Other repositories of the same domain type are left alone: 
+      // they depend on the domain type physical type and are notified of its changes directly.
+      String localMid = null;
+      for (final String repositoryMid : localMids) {
+         if (!isRepositoryPresent(repositoryMid)) {
+            dissociate(repositoryMid);
+            fingerprintCache.remove(repositoryMid);
+         } else if (localMid == null) {
+            localMid = repositoryMid;
          }
       }
-      return null;
+      return localMid;
    }
 
    @Override
@@ -130,15 +155,82 @@ public class RepositoryElasticsearchMetadataProvider extends AbstractMemberDisco
       final JavaType domainType = annotationValues.getDomainType();
       
       // Remember that this entity JavaType matches up with this metadata identification string.
-      // Start by clearing any previous association.
-      final JavaType oldEntity = repositoryMidToDomainTypeMap.get(metadataIdentificationString);
-      if (oldEntity != null) {
-         domainTypeToRepositoryMidMap.remove(oldEntity);
+      associate(metadataIdentificationString, domainType);
+      
+      // Methods declared for the custom implementation depend on the domain type settings.
+      String fingerprint = MetadataFingerprintCache.fingerprint(governorPhysicalTypeMetadata, ElasticsearchJavaType.ROO_REPOSITORY_ELASTICSEARCH);
+      ElasticsearchEntityAnnotationValues entityValues = null;
+      final ClassOrInterfaceTypeDetails entity = domainType == null ? null : typeLocationService.getTypeDetails(domainType);
+      if (entity != null && isImplemented(metadataIdentificationString, governorPhysicalTypeMetadata)) {
+         metadataDependencyRegistry.registerDependency(entity.getDeclaredByMetadataId(), metadataIdentificationString);
+         final PhysicalTypeMetadata entityPhysicalTypeMetadata = new DefaultPhysicalTypeMetadata(entity.getDeclaredByMetadataId(),
+               typeLocationService.getPhysicalTypeCanonicalPath(entity.getDeclaredByMetadataId()), entity);
+         entityValues = new ElasticsearchEntityAnnotationValues(entityPhysicalTypeMetadata);
+         if (entityValues.isAnnotationFound()) {
+            fingerprint += MetadataFingerprintCache.fingerprint(entityPhysicalTypeMetadata, ElasticsearchJavaType.ROO_ELASTICSEARCH_ENTITY);
+         } else {
+            entityValues = null;
+         }
       }
-      domainTypeToRepositoryMidMap.put(domainType, metadataIdentificationString);
-      repositoryMidToDomainTypeMap.put(metadataIdentificationString, domainType);
       
-      return new RepositoryElasticsearchMetadata(metadataIdentificationString, aspectName, governorPhysicalTypeMetadata, annotationValues);
+      // Reuse previous metadata if neither the annotations nor the governors members have changed.
+      final ItdTypeDetailsProvidingMetadataItem previous = fingerprintCache.get(metadataIdentificationString, fingerprint);
+      if (previous != null) {
+         return previous;
+      }
+      return fingerprintCache.put(metadataIdentificationString, fingerprint, 
+            new RepositoryElasticsearchMetadata(metadataIdentificationString, aspectName, governorPhysicalTypeMetadata, 
+                  annotationValues, entityValues));
+   }
+
+   /**
+    * Tells whether the custom implementation serving the generated methods of a repository exists. Methods
+    * declared on a repository without it would be parsed as query methods by Spring Data.
+    * @param repositoryMid the repository metadata ID (required)
+    * @param governorPhysicalTypeMetadata the repository physical type (required)
+    * @return true if implementation exists
+    */
+   private boolean isImplemented(final String repositoryMid, final PhysicalTypeMetadata governorPhysicalTypeMetadata) {
+      final JavaType implementationType = new JavaType(governorPhysicalTypeMetadata.getMemberHoldingTypeDetails().getName()
+            .getFullyQualifiedTypeName() + RooElasticsearchRepositoryImpl.IMPLEMENTATION_SUFFIX);
+      // Be notified when implementation is created or deleted.
+      metadataDependencyRegistry.registerDependency(PhysicalTypeIdentifier.createIdentifier(implementationType, 
+            PhysicalTypeIdentifier.getPath(governorPhysicalTypeMetadata.getId())), repositoryMid);
+      final ClassOrInterfaceTypeDetails implementation = typeLocationService.getTypeDetails(implementationType);
+      return implementation != null && implementation.getAnnotation(ElasticsearchJavaType.ROO_REPOSITORY_ELASTICSEARCH_IMPL) != null;
+   }
+
+   private synchronized void associate(final String repositoryMid, final JavaType domainType) {
+      // Start by clearing any previous association, as domain type of repository may have changed.
+      dissociate(repositoryMid);
+      if (domainType == null) {
+         return;
+      }
+      Set<String> repositoryMids = domainTypeToRepositoryMidMap.get(domainType);
+      if (repositoryMids == null) {
+         repositoryMids = new CopyOnWriteArraySet<String>();
+         domainTypeToRepositoryMidMap.put(domainType, repositoryMids);
+      }
+      repositoryMids.add(repositoryMid);
+      repositoryMidToDomainTypeMap.put(repositoryMid, domainType);
+   }
+   
+   private synchronized void dissociate(final String repositoryMid) {
+      final JavaType domainType = repositoryMidToDomainTypeMap.remove(repositoryMid);
+      if (domainType != null) {
+         final Set<String> repositoryMids = domainTypeToRepositoryMidMap.get(domainType);
+         repositoryMids.remove(repositoryMid);
+         if (repositoryMids.isEmpty()) {
+            domainTypeToRepositoryMidMap.remove(domainType);
+         }
+      }
+   }
+   
+   private boolean isRepositoryPresent(final String repositoryMid) {
+      // Repositories that have been deleted or are no longer annotated are stale entries.
+      final ClassOrInterfaceTypeDetails repository = typeLocationService.getTypeDetails(
+            RepositoryElasticsearchMetadata.getJavaType(repositoryMid));
+      return repository != null && repository.getAnnotation(ElasticsearchJavaType.ROO_REPOSITORY_ELASTICSEARCH) != null;
    }
 
    @SuppressWarnings("unchecked")
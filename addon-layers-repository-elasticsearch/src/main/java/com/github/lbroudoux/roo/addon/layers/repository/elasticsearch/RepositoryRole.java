@@ -0,0 +1,35 @@
+/*
+ * Licensed to Laurent Broudoux (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.lbroudoux.roo.addon.layers.repository.elasticsearch;
+
+/**
+ * The repository layer methods a repository serves when several repositories manage the same domain type.
+ * @author Laurent Broudoux
+ */
+public enum RepositoryRole {
+
+   /** Serve any method not served by a more specific repository. */
+   DEFAULT,
+
+   /** Serve finders, counts and other reading methods. */
+   READ,
+
+   /** Serve save and delete methods. */
+   WRITE
+}
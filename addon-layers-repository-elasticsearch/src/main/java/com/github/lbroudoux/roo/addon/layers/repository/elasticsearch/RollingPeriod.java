@@ -0,0 +1,53 @@
+/*
+ * Licensed to Laurent Broudoux (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.lbroudoux.roo.addon.layers.repository.elasticsearch;
+
+/**
+ * How often entities are written to a new index. Each period index is named after the entity index
+ * followed by the start date of the period (eg: tweets-2013.05.27).
+ * @author Laurent Broudoux
+ */
+public enum RollingPeriod {
+
+   /** Do not roll, all entities are written to the entity index. */
+   NONE(null),
+
+   /** One index per day. */
+   DAILY("yyyy.MM.dd"),
+
+   /** One index per week, starting on monday. */
+   WEEKLY("yyyy.MM.dd"),
+
+   /** One index per month. */
+   MONTHLY("yyyy.MM");
+
+   private final String datePattern;
+
+   private RollingPeriod(final String datePattern) {
+      this.datePattern = datePattern;
+   }
+
+   /**
+    * Returns the pattern formatting the start date of a period within index name.
+    * @return a date pattern, <code>null</code> if entities do not roll
+    */
+   public String getDatePattern() {
+      return datePattern;
+   }
+}
@@ -30,5 +30,94 @@ import java.lang.annotation.Target;
 @Target(ElementType.TYPE)
 @Retention(RetentionPolicy.SOURCE)
 public @interface RooElasticsearchEntity {
+
+   /**
+    * The default number of primary shards of the entity index.
+    */
+   int DEFAULT_SHARDS = 5;
+   
+   /**
+    * The default number of replicas of each primary shard.
+    */
+   int DEFAULT_REPLICAS = 1;
+   
+   /**
+    * The default interval between two automatic refreshes of the entity index.
+    */
+   String DEFAULT_REFRESH_INTERVAL = "1s";
+   
+   /**
+    * The default store type of the entity index.
+    */
+   String DEFAULT_INDEX_STORE_TYPE = "fs";
+   
+   /**
+    * The name of this annotation's attribute that specifies the refresh mode.
+    */
+   String REFRESH_MODE_ATTRIBUTE = "refreshMode";
+   
+   /**
+    * The name of this annotation's attribute that specifies the rolling period.
+    */
+   String ROLLING_ATTRIBUTE = "rolling";
+   
+   /**
+    * The number of primary shards of the entity index. Cannot be changed once the index is created.
+    * @return a strictly positive number of shards
+    */
+   int shards() default DEFAULT_SHARDS;
+   
+   /**
+    * The number of replicas of each primary shard.
+    * @return a positive number of replicas
+    */
+   int replicas() default DEFAULT_REPLICAS;
+   
+   /**
+    * The interval between two automatic refreshes of the entity index. Use "-1" to
+    * disable automatic refresh.
+    * @return a time value such as "1s" or "30s"
+    */
+   String refreshInterval() default DEFAULT_REFRESH_INTERVAL;
+   
+   /**
+    * The store type of the entity index.
+    * @return a store type such as "fs", "mmapfs" or "memory"
+    */
+   String indexStoreType() default DEFAULT_INDEX_STORE_TYPE;
+   
+   /**
+    * The name of the field whose value routes entities to shards. When set, every single entity
+    * request of the repository layer targets one shard only.
+    * @return the name of the routing field, empty for default routing on identifier
+    */
+   String routingField() default "";
+   
+   /**
+    * The names of fields that are only carried as payload: they are stored within source but not indexed.
+    * @return the names of payload only fields
+    */
+   String[] unindexedFields() default {};
+   
+   /**
+    * How the index is refreshed after a single entity has been written. Using 
+    * {@link RefreshMode#NONE} avoids creating a tiny segment per write under sustained load.
+    * @return the refresh mode
+    */
+   RefreshMode refreshMode() default RefreshMode.IMMEDIATE;
+   
+   /**
+    * Whether entities carry the version of their document. Saving an entity then only succeeds if its
+    * document has not been written since the entity was read, allowing concurrent writers without locking.
+    * @return true to add a version field
+    */
+   boolean versioned() default false;
+   
+   /**
+    * How often entities are written to a new index, for append-only time series entities. Entities are 
+    * read from all period indices at once, and retention is achieved by dropping old period indices whole.
+    * @return the rolling period
+    */
+   RollingPeriod rolling() default RollingPeriod.NONE;
 }
 
@@ -35,10 +35,78 @@ public @interface RooElasticsearchRepository {
     * The name of this annotation's attribute that specifies the managed domain type.
     */
    String DOMAIN_TYPE_ATTRIBUTE = "domainType";
+   
+   /**
+    * The name of this annotation's attribute that specifies the projections.
+    */
+   String PROJECTIONS_ATTRIBUTE = "projections";
+   
+   /**
+    * The name of this annotation's attribute that specifies the finders.
+    */
+   String FINDERS_ATTRIBUTE = "finders";
+   
+   /**
+    * The name of this annotation's attribute that specifies the role.
+    */
+   String ROLE_ATTRIBUTE = "role";
 
    /**
     * The domain type managed by the annotated repository.
     * @return a non-<code>null</code> entity type
     */
    Class<?> domainType();
+   
+   /**
+    * How long - in seconds - the entity count is cached by this repository. Paginated 
+    * views ask for it on every page render, so a short cache saves many requests under heavy read traffic.
+    * @return a number of seconds, 0 to disable caching
+    */
+   int countCacheSeconds() default 0;
+   
+   /**
+    * The exact match finders of this repository, each declared as the comma separated list of entity fields 
+    * to match. Each finder generates a <code>find&lt;Entity&gt;By&lt;Field1&gt;And&lt;Field2&gt;</code> method 
+    * matching string, boolean and enum fields on terms and number and date fields on ranges, in filter context.
+    * @return the finder declarations
+    */
+   String[] finders() default {};
+   
+   /**
+    * Whether this repository also gets non blocking variants of the find, save, delete and count methods, such as
+    * <code>get&lt;Entity&gt;Async</code>. They return futures completed by the Elasticsearch client 
+    * listener, so that several requests can be issued concurrently.
+    * @return true to generate asynchronous variants
+    */
+   boolean async() default false;
+   
+   /**
+    * The named field subsets list views can fetch instead of whole documents, declared as 
+    * <code>name:field1,field2</code>. Fields prefixed with <code>!</code> are excluded instead.
+    * Each projection generates a <code>find&lt;Entity&gt;Entries&lt;Name&gt;</code> finder.
+    * @return the projection declarations
+    */
+   String[] projections() default {};
+   
+   /**
+    * The maximum number of results of entity lookups and finders cached by this repository. Least
+    * recently used entries are evicted first; writes through this repository evict the written entity along with
+    * all finder results. The repository exposes hit, miss and eviction counts through <code>get&lt;Entity&gt;CacheStatistics</code>.
+    * @return a number of entries, 0 to disable caching
+    */
+   int cache() default 0;
+   
+   /**
+    * How long - in seconds - the results are kept in the cache of this repository, if caching is enabled.
+    * @return a number of seconds
+    */
+   int cacheSeconds() default 60;
+   
+   /**
+    * The methods this repository serves when several repositories manage the same domain type: reading 
+    * methods are served by a {@link RepositoryRole#READ} repository, save and delete methods by a 
+    * {@link RepositoryRole#WRITE} one, falling back to a {@link RepositoryRole#DEFAULT} repository.
+    * @return the role of this repository
+    */
+   RepositoryRole role() default RepositoryRole.DEFAULT;
 }
@@ -0,0 +1,51 @@
+/*
+ * Licensed to Laurent Broudoux (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.lbroudoux.roo.addon.layers.repository.elasticsearch;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks the annotated type as the custom implementation of a Spring Data Elasticsearch repository. Spring Data
+ * picks it up by name (the repository name followed by <code>Impl</code>) and routes to it the methods that the
+ * repository interface declares on top of the Spring Data ones.
+ * @author Laurent Broudoux
+ */
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.SOURCE)
+public @interface RooElasticsearchRepositoryImpl {
+
+   /**
+    * The name of this annotation's attribute that specifies the implemented repository.
+    */
+   String REPOSITORY_ATTRIBUTE = "repository";
+   
+   /**
+    * The suffix Spring Data expects from the name of a repository custom implementation.
+    */
+   String IMPLEMENTATION_SUFFIX = "Impl";
+   
+   /**
+    * The repository implemented by the annotated type.
+    * @return a non-<code>null</code> repository interface, annotated with {@link RooElasticsearchRepository}
+    */
+   Class<?> repository();
+}
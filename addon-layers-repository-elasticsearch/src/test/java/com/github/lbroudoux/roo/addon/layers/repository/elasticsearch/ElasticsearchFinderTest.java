@@ -0,0 +1,81 @@
+/*
+ * Licensed to Laurent Broudoux (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.lbroudoux.roo.addon.layers.repository.elasticsearch;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.springframework.roo.model.JavaType;
+
+/**
+ * Tests for {@link ElasticsearchFinder} declarations parsing.
+ * @author Laurent Broudoux
+ */
+public class ElasticsearchFinderTest {
+
+   private static final JavaType TWEET = new JavaType("com.github.lbroudoux.es.domain.Tweet");
+
+   @Test
+   public void testParseFields() {
+      final ElasticsearchFinder finder = ElasticsearchFinder.parse(" author , createdAt ");
+      assertEquals(Arrays.asList("author", "createdAt"), finder.getFieldNames());
+      assertEquals("author,createdAt", finder.getDeclaration());
+      assertEquals("findTweetByAuthorAndCreatedAt", finder.getMethodName(TWEET));
+   }
+
+   @Test
+   public void testParseDuplicateFields() {
+      final ElasticsearchFinder finder = ElasticsearchFinder.parse("author,createdAt,author");
+      assertEquals(Arrays.asList("author", "createdAt"), finder.getFieldNames());
+      assertEquals("author,createdAt", finder.getDeclaration());
+   }
+
+   @Test
+   public void testParseSkipsEmptyFields() {
+      assertEquals(Arrays.asList("author", "createdAt"), ElasticsearchFinder.parse("author,,createdAt,").getFieldNames());
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void testParseBlankDeclaration() {
+      ElasticsearchFinder.parse("  ");
+   }
+
+   @Test(expected = NullPointerException.class)
+   public void testParseNullDeclaration() {
+      ElasticsearchFinder.parse(null);
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void testParseNoField() {
+      ElasticsearchFinder.parse(" , ,");
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void testParseMalformedField() {
+      ElasticsearchFinder.parse("author createdAt");
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void testParseNegatedField() {
+      // Finders match on fields, they cannot exclude some as projections do.
+      ElasticsearchFinder.parse("author,!body");
+   }
+}
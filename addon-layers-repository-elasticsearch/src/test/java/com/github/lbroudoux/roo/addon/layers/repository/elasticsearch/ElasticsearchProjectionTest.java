@@ -0,0 +1,97 @@
+/*
+ * Licensed to Laurent Broudoux (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.lbroudoux.roo.addon.layers.repository.elasticsearch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link ElasticsearchProjection} declarations parsing.
+ * @author Laurent Broudoux
+ */
+public class ElasticsearchProjectionTest {
+
+   @Test
+   public void testParseIncludes() {
+      final ElasticsearchProjection projection = ElasticsearchProjection.parse(" summary : author , createdAt ");
+      assertEquals("summary", projection.getName());
+      assertEquals(Arrays.asList("author", "createdAt"), projection.getIncludes());
+      assertTrue(projection.getExcludes().isEmpty());
+   }
+
+   @Test
+   public void testParseNegatedField() {
+      final ElasticsearchProjection projection = ElasticsearchProjection.parse("light:!body");
+      assertTrue(projection.getIncludes().isEmpty());
+      assertEquals(Arrays.asList("body"), projection.getExcludes());
+   }
+
+   @Test
+   public void testParseIncludesAndExcludes() {
+      final ElasticsearchProjection projection = ElasticsearchProjection.parse("light:author,! body");
+      assertEquals(Arrays.asList("author"), projection.getIncludes());
+      assertEquals(Arrays.asList("body"), projection.getExcludes());
+   }
+
+   @Test
+   public void testParseDuplicateFields() {
+      final ElasticsearchProjection projection = ElasticsearchProjection.parse("light:author,author,!body,!body");
+      assertEquals(Arrays.asList("author"), projection.getIncludes());
+      assertEquals(Arrays.asList("body"), projection.getExcludes());
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void testParseIncludedAndExcludedField() {
+      ElasticsearchProjection.parse("light:author,!author");
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void testParseBlankDeclaration() {
+      ElasticsearchProjection.parse("  ");
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void testParseBlankFields() {
+      ElasticsearchProjection.parse("light: , ");
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void testParseBlankNegatedField() {
+      ElasticsearchProjection.parse("light:author,!");
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void testParseMissingName() {
+      ElasticsearchProjection.parse(":author");
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void testParseMissingSeparator() {
+      ElasticsearchProjection.parse("author,body");
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void testParseMalformedName() {
+      ElasticsearchProjection.parse("light projection:author");
+   }
+}